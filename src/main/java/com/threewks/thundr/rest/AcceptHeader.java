@@ -0,0 +1,167 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A parsed Accept header: the media ranges a client will accept, each with its quality value (RFC 7231 section 5.3.2).
+ */
+class AcceptHeader {
+	private final List<MediaRange> ranges;
+
+	private AcceptHeader(List<MediaRange> ranges) {
+		this.ranges = ranges;
+	}
+
+	static AcceptHeader parse(String accept) {
+		ImmutableList.Builder<MediaRange> ranges = ImmutableList.builder();
+		int position = 0;
+		for (String element : StringUtils.split(StringUtils.defaultString(accept), ',')) {
+			MediaRange range = MediaRange.parse(element, position++);
+			if (range != null) {
+				ranges.add(range);
+			}
+		}
+		return new AcceptHeader(ranges.build());
+	}
+
+	/**
+	 * Chooses the content type the client prefers among those available. A content type's quality is taken from the
+	 * most specific range which matches it; the highest quality wins, then the more specific match, then the range
+	 * listed last, so that <code>*&#47;*, text/html, application/xml</code> still prefers application/xml.
+	 * Content types matched only by <code>*&#47;*</code> are never chosen, leaving the caller to apply its default.
+	 * Content types in <code>explicitOnly</code> are never chosen through a <code>type/*</code> range either, and when
+	 * several content types match the same range the preferred one wins, then the first given.
+	 *
+	 * @param preferred the content type to choose among equally acceptable ones, usually the default
+	 * @param explicitOnly content types which must be named in full to be chosen
+	 * @return the preferred content type, or null if none was explicitly accepted
+	 */
+	String select(Collection<String> contentTypes, String preferred, Collection<String> explicitOnly) {
+		String best = null;
+		MediaRange bestRange = null;
+		for (String contentType : contentTypes) {
+			MediaRange range = match(contentType);
+			if (range == null || range.quality <= 0 || range.specificity() == 0) {
+				continue;
+			}
+			if (range.specificity() == 1 && explicitOnly.contains(contentType)) {
+				continue;
+			}
+			if (bestRange == null || range.isPreferredTo(bestRange)
+					|| (contentType.equals(preferred) && !bestRange.isPreferredTo(range))) {
+				best = contentType;
+				bestRange = range;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return the most specific range matching the content type, or null if the client did not mention it
+	 */
+	MediaRange match(String contentType) {
+		MediaRange match = null;
+		for (MediaRange range : ranges) {
+			if (range.matches(contentType) && (match == null || range.specificity() > match.specificity())) {
+				match = range;
+			}
+		}
+		return match;
+	}
+
+	static class MediaRange {
+		private final String type;
+		private final String subtype;
+		private final float quality;
+		private final int position;
+
+		private MediaRange(String type, String subtype, float quality, int position) {
+			this.type = type;
+			this.subtype = subtype;
+			this.quality = quality;
+			this.position = position;
+		}
+
+		static MediaRange parse(String element, int position) {
+			String[] parts = StringUtils.split(element, ';');
+			if (parts.length == 0) {
+				return null;
+			}
+
+			String mediaType = parts[0].trim().toLowerCase();
+			int slash = mediaType.indexOf('/');
+			if (slash < 1 || slash == mediaType.length() - 1) {
+				return null;
+			}
+
+			float quality = 1;
+			for (int i = 1; i < parts.length; i++) {
+				String param = parts[i].trim();
+				if (param.startsWith("q=")) {
+					try {
+						quality = Float.parseFloat(param.substring(2).trim());
+					} catch (NumberFormatException e) {
+						quality = 0;
+					}
+					// Anything after q is an accept extension, not a media type parameter
+					break;
+				}
+			}
+			return new MediaRange(mediaType.substring(0, slash), mediaType.substring(slash + 1), quality, position);
+		}
+
+		float getQuality() {
+			return quality;
+		}
+
+		/**
+		 * @return 2 for a full media type, 1 for type/* and 0 for *&#47;*
+		 */
+		int specificity() {
+			return "*".equals(type) ? 0 : "*".equals(subtype) ? 1 : 2;
+		}
+
+		boolean matches(String contentType) {
+			if (specificity() == 0) {
+				return true;
+			}
+			String candidate = contentType.toLowerCase();
+			int slash = candidate.indexOf('/');
+			if (slash < 0 || !type.equals(candidate.substring(0, slash))) {
+				return false;
+			}
+			return specificity() == 1 || subtype.equals(candidate.substring(slash + 1));
+		}
+
+		boolean isPreferredTo(MediaRange other) {
+			if (quality != other.quality) {
+				return quality > other.quality;
+			}
+			if (specificity() != other.specificity()) {
+				return specificity() > other.specificity();
+			}
+			return position > other.position;
+		}
+	}
+}
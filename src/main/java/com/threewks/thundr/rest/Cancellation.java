@@ -0,0 +1,49 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+/**
+ * Lets serializers find out, between elements, whether the response they are writing is still wanted. The
+ * {@link RestViewResolver} makes the request's {@link RestContext} current for the thread while it serializes, so a
+ * serializer walking a large collection or cursor can call {@link #check()} and stop as soon as the request's
+ * deadline passes, rather than encoding output no one will read.
+ */
+public class Cancellation {
+	private static final ThreadLocal<RestContext> current = new ThreadLocal<>();
+
+	private Cancellation() {
+	}
+
+	/**
+	 * @throws RequestCancelledException if the response being written on this thread has been cancelled
+	 */
+	public static void check() {
+		RestContext context = current.get();
+		if (context != null && context.isCancelled()) {
+			throw new RequestCancelledException("The request was cancelled or passed its deadline");
+		}
+	}
+
+	static void enter(RestContext context) {
+		current.set(context);
+	}
+
+	static void exit() {
+		current.remove();
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.threewks.thundr.rest.cache.ResponseCapture;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps a copy of the serialized body as it is written, before any compression, and hands it to a
+ * {@link ResponseCapture} once the body is complete. Bodies which grow past the capture's limit or are reset after a
+ * serialization failure are not captured.
+ */
+class CapturingOutputStream extends ResettableOutputStream {
+	private final ResettableOutputStream out;
+	private final ResponseCapture capture;
+	private final String contentType;
+	private final String characterEncoding;
+	private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+	CapturingOutputStream(ResettableOutputStream out, ResponseCapture capture, String contentType, String characterEncoding) {
+		this.out = out;
+		this.capture = capture;
+		this.contentType = contentType;
+		this.characterEncoding = characterEncoding;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+		if (copy != null) {
+			if (copy.size() + len > capture.getMaximumBytes()) {
+				copy = null;
+			} else {
+				copy.write(b, off, len);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+		if (copy != null) {
+			capture.complete(contentType, characterEncoding, copy.toByteArray());
+			copy = null;
+		}
+	}
+
+	@Override
+	boolean isCommitted() {
+		return out.isCommitted();
+	}
+
+	@Override
+	void reset() {
+		out.reset();
+		copy = null;
+	}
+
+	@Override
+	void release() {
+		out.release();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a response body as it is written. The first bytes are held back until the body reaches the compression
+ * threshold; bodies which never get that large are sent as is, without a Content-Encoding. Past the threshold the
+ * Content-Encoding header is set and everything is deflated straight through to the underlying response stream,
+ * so the uncompressed body is never held in full.
+ */
+class CompressingOutputStream extends ResettableOutputStream {
+	private static final byte[] GzipHeader = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final HttpServletResponse res;
+	private final ResponseOutputStream out;
+	private final ContentEncoding encoding;
+	private final DeflaterPool pool;
+	private final int threshold;
+	private byte[] held;
+	private int count = 0;
+	private final byte[] deflated = new byte[8 * 1024];
+	private final CRC32 crc = new CRC32();
+	private Deflater deflater;
+	private boolean started = false;
+	private boolean headerWritten = false;
+
+	CompressingOutputStream(HttpServletResponse res, ResponseOutputStream out, ContentEncoding encoding, DeflaterPool pool, int threshold) {
+		this.res = res;
+		this.out = out;
+		this.encoding = encoding;
+		this.pool = pool;
+		this.threshold = threshold;
+		this.held = new byte[Math.min(threshold, 1024)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (!started && count + len <= threshold) {
+			if (count + len > held.length) {
+				held = Arrays.copyOf(held, Math.min(threshold, Math.max(count + len, held.length * 2)));
+			}
+			System.arraycopy(b, off, held, count, len);
+			count += len;
+			return;
+		}
+
+		if (!started) {
+			start();
+		}
+		deflate(b, off, len);
+	}
+
+	/**
+	 * Pushes everything written so far to the client, using a zlib sync flush once compression has started.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (started) {
+			int length;
+			do {
+				length = deflater.deflate(deflated, 0, deflated.length, Deflater.SYNC_FLUSH);
+				writeDeflated(length);
+			} while (length == deflated.length);
+			out.flush();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (started) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					writeDeflated(deflater.deflate(deflated, 0, deflated.length, Deflater.NO_FLUSH));
+				}
+				if (encoding == ContentEncoding.Gzip) {
+					writeGzipTrailer();
+				}
+			} else {
+				out.write(held, 0, count);
+			}
+			out.close();
+		} finally {
+			release();
+		}
+	}
+
+	@Override
+	boolean isCommitted() {
+		return out.isCommitted();
+	}
+
+	/**
+	 * Discards anything written so far. Once compression has started the Content-Encoding has been declared, so the
+	 * replacement body is compressed as well, whatever its size.
+	 */
+	@Override
+	void reset() {
+		out.reset();
+		count = 0;
+		if (started) {
+			deflater.reset();
+			crc.reset();
+			headerWritten = false;
+		}
+	}
+
+	@Override
+	void release() {
+		if (deflater != null) {
+			pool.release(deflater);
+			deflater = null;
+		}
+		out.release();
+	}
+
+	private void start() throws IOException {
+		started = true;
+		res.setHeader("Content-Encoding", encoding.getToken());
+		deflater = pool.acquire();
+		deflate(held, 0, count);
+	}
+
+	private void deflate(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return;
+		}
+		crc.update(b, off, len);
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			writeDeflated(deflater.deflate(deflated, 0, deflated.length, Deflater.NO_FLUSH));
+		}
+	}
+
+	private void writeDeflated(int length) throws IOException {
+		if (length > 0) {
+			// The gzip header goes out with the first compressed bytes so a reset never has to write it again
+			if (!headerWritten && encoding == ContentEncoding.Gzip) {
+				out.write(GzipHeader);
+			}
+			headerWritten = true;
+			out.write(deflated, 0, length);
+		}
+	}
+
+	private void writeGzipTrailer() throws IOException {
+		writeIntLE((int) crc.getValue());
+		writeIntLE((int) deflater.getBytesRead());
+	}
+
+	private void writeIntLE(int value) throws IOException {
+		out.write(value & 0xff);
+		out.write((value >> 8) & 0xff);
+		out.write((value >> 16) & 0xff);
+		out.write((value >> 24) & 0xff);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The compressed content codings the {@link RestViewResolver} can produce.
+ */
+enum ContentEncoding {
+	Gzip("gzip"),
+	Deflate("deflate");
+
+	private final String token;
+
+	ContentEncoding(String token) {
+		this.token = token;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Picks the preferred coding from an Accept-Encoding header, honouring q-values and wildcards and preferring gzip
+	 * when the client rates both equally.
+	 *
+	 * @return the coding to use, or null if the response should be sent uncompressed
+	 */
+	static ContentEncoding negotiate(String acceptEncoding) {
+		if (StringUtils.isBlank(acceptEncoding)) {
+			return null;
+		}
+
+		float gzip = -1;
+		float deflate = -1;
+		float wildcard = -1;
+		for (String element : StringUtils.split(acceptEncoding, ',')) {
+			String[] parts = StringUtils.split(element, ';');
+			if (parts.length == 0) {
+				continue;
+			}
+
+			String coding = parts[0].trim().toLowerCase();
+			float quality = quality(parts);
+			if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+				gzip = Math.max(gzip, quality);
+			} else if ("deflate".equals(coding)) {
+				deflate = Math.max(deflate, quality);
+			} else if ("*".equals(coding)) {
+				wildcard = quality;
+			}
+		}
+
+		gzip = gzip < 0 ? wildcard : gzip;
+		deflate = deflate < 0 ? wildcard : deflate;
+		if (gzip <= 0 && deflate <= 0) {
+			return null;
+		}
+		return gzip >= deflate ? Gzip : Deflate;
+	}
+
+	private static float quality(String[] parts) {
+		for (int i = 1; i < parts.length; i++) {
+			String param = parts[i].trim();
+			if (param.startsWith("q=")) {
+				try {
+					return Float.parseFloat(param.substring(2).trim());
+				} catch (NumberFormatException e) {
+					return 0;
+				}
+			}
+		}
+		return 1;
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.Deflater;
+
+/**
+ * A bounded pool of {@link Deflater}s sharing a compression level, so that each compressed response does not allocate
+ * (and later finalize) its own native zlib stream. Deflaters returned beyond the pool's capacity are ended.
+ */
+class DeflaterPool {
+	private final int level;
+	private final boolean nowrap;
+	private final BlockingQueue<Deflater> deflaters;
+
+	DeflaterPool(int level, boolean nowrap, int capacity) {
+		this.level = level;
+		this.nowrap = nowrap;
+		this.deflaters = new ArrayBlockingQueue<>(capacity);
+	}
+
+	Deflater acquire() {
+		Deflater deflater = deflaters.poll();
+		return deflater == null ? new Deflater(level, nowrap) : deflater;
+	}
+
+	void release(Deflater deflater) {
+		deflater.reset();
+		if (!deflaters.offer(deflater)) {
+			deflater.end();
+		}
+	}
+
+	int getLevel() {
+		return level;
+	}
+}
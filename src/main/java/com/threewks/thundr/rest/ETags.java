@@ -0,0 +1,99 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.base.CharMatcher;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Helpers for producing entity tags and evaluating If-None-Match preconditions.
+ */
+public class ETags {
+	/**
+	 * Request attribute holding an ETag already known for the response, for example one derived from a
+	 * {@link com.threewks.thundr.rest.intercept.VersionProvider}. When present the {@link RestViewResolver} sends it
+	 * instead of hashing the body.
+	 */
+	public static final String RequestAttribute = ETags.class.getName() + ".etag";
+
+	// Characters allowed in an entity tag, which excludes quotes, spaces and controls
+	private static final CharMatcher TagCharacters = CharMatcher.inRange('!', '~').and(CharMatcher.isNot('"'));
+
+	/**
+	 * @return the given opaque value as a quoted strong entity tag
+	 */
+	public static String strong(String opaque) {
+		if (opaque.indexOf('"') >= 0) {
+			throw new RestException("Entity tags cannot contain double quotes: %s", opaque);
+		}
+		return "\"" + opaque + "\"";
+	}
+
+	/**
+	 * A strong entity tag must be unique to one representation, so the same version of a resource sent as JSON and as
+	 * XML, or gzipped and not, must have different tags.
+	 *
+	 * @param contentCoding the response's content coding, or null for identity
+	 * @return a strong entity tag for the given version of a resource in the representation with the given content type
+	 * and coding
+	 */
+	public static String strong(String version, String contentType, String contentCoding) {
+		StringBuilder opaque = new StringBuilder(version).append(';').append(TagCharacters.retainFrom(contentType));
+		if (contentCoding != null) {
+			opaque.append(';').append(contentCoding);
+		}
+		return strong(opaque.toString());
+	}
+
+	/**
+	 * Evaluates an If-None-Match header against the current entity tag using weak comparison, as required by
+	 * RFC 7232 for GET and HEAD requests.
+	 *
+	 * @return true if the client's copy is current and the response can be a 304
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if (StringUtils.isBlank(ifNoneMatch) || etag == null) {
+			return false;
+		}
+		if ("*".equals(ifNoneMatch.trim())) {
+			return true;
+		}
+
+		String opaque = stripWeak(etag);
+		for (String candidate : StringUtils.split(ifNoneMatch, ',')) {
+			if (opaque.equals(stripWeak(candidate.trim()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the request's method allows a 304 Not Modified response
+	 */
+	public static boolean isConditional(HttpServletRequest req) {
+		String method = req.getMethod();
+		return ("GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method)) && req.getHeader("If-None-Match") != null;
+	}
+
+	private static String stripWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+}
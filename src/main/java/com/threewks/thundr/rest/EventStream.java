@@ -0,0 +1,193 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A stream of <a href="http://www.w3.org/TR/eventsource/">server-sent events</a>. Return one as the output of a
+ * {@link RestView} and the {@link RestViewResolver} holds the {@code text/event-stream} response open, writing each
+ * event published to the stream with the negotiated serializer until the stream is completed or the client goes
+ * away. A heartbeat comment is sent while no events are published, so intermediaries don't time the connection out.
+ *
+ * Events are buffered per connection up to a fixed capacity. A client which falls so far behind that the buffer
+ * fills is disconnected rather than allowed to hold an unbounded backlog in memory; browsers reconnect
+ * automatically, sending the id of the last event they saw, from which the controller can resume:
+ *
+ * <pre>
+ * EventStream stream = new EventStream(EventStream.lastEventId(request));
+ * feed.subscribe(stream);
+ * return new RestView&lt;EventStream&gt;(stream);
+ * </pre>
+ *
+ * Publishing is thread safe. The resolving request thread blocks for the life of the stream.
+ */
+public class EventStream implements AutoCloseable {
+	public static final String ContentType = "text/event-stream";
+	public static final int DefaultCapacity = 256;
+
+	// Wakes the writer when the stream is completed, in place of another event
+	private static final Event End = new Event(null, null, null);
+
+	private final BlockingQueue<Event> events;
+	private final String lastEventId;
+	private volatile boolean completed = false;
+	private volatile boolean closed = false;
+	private volatile long retry = -1;
+
+	public EventStream() {
+		this(null);
+	}
+
+	public EventStream(String lastEventId) {
+		this(lastEventId, DefaultCapacity);
+	}
+
+	public EventStream(String lastEventId, int capacity) {
+		this.lastEventId = lastEventId;
+		this.events = new ArrayBlockingQueue<>(capacity);
+	}
+
+	/**
+	 * @return the id of the last event a reconnecting client received, from the Last-Event-ID header or the
+	 *         lastEventId parameter used by EventSource polyfills, or null for a new connection
+	 */
+	public static String lastEventId(HttpServletRequest req) {
+		return StringUtils.defaultIfEmpty(req.getHeader("Last-Event-ID"), req.getParameter("lastEventId"));
+	}
+
+	/**
+	 * @return the id of the last event the client received when this stream was created, or null
+	 */
+	public String getLastEventId() {
+		return lastEventId;
+	}
+
+	public long getRetry() {
+		return retry;
+	}
+
+	/**
+	 * Sets how many milliseconds the client should wait before reconnecting if the connection is lost. Must be set
+	 * before the stream is returned in a view.
+	 */
+	public EventStream setRetry(long retry) {
+		this.retry = retry;
+		return this;
+	}
+
+	public boolean publish(Object data) {
+		return publish(new Event(null, null, data));
+	}
+
+	public boolean publish(String id, String name, Object data) {
+		return publish(new Event(id, name, data));
+	}
+
+	/**
+	 * Queues an event to be sent to the client.
+	 *
+	 * @return false if the stream is closed, or its buffer was full in which case the stream is closed
+	 */
+	public boolean publish(Event event) {
+		if (closed || completed) {
+			return false;
+		}
+		if (!events.offer(event)) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Ends the stream once the events already published have been sent.
+	 */
+	public void complete() {
+		completed = true;
+		events.offer(End);
+	}
+
+	/**
+	 * @return true once the stream can no longer be published to, because it completed, overflowed or the client
+	 *         went away
+	 */
+	public boolean isClosed() {
+		return closed || completed;
+	}
+
+	/**
+	 * Ends the stream immediately, discarding any events not yet sent.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		events.clear();
+		events.offer(End);
+	}
+
+	/**
+	 * Waits up to the given time for the next event to send.
+	 *
+	 * @return the next event, or null if none was published in time or the stream has ended
+	 */
+	Event poll(long timeout) throws InterruptedException {
+		Event event = closed ? null : events.poll(timeout, TimeUnit.MILLISECONDS);
+		return event == End ? null : event;
+	}
+
+	/**
+	 * @return true once every event which will be sent has been taken from the stream
+	 */
+	boolean isFinished() {
+		return closed || (completed && events.isEmpty());
+	}
+
+	public static class Event {
+		private final String id;
+		private final String name;
+		private final Object data;
+
+		public Event(String id, String name, Object data) {
+			this.id = id;
+			this.name = name;
+			this.data = data;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		/**
+		 * @return the event type, which is dispatched to listeners of that name by an EventSource. Null events are
+		 *         delivered as messages.
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public Object getData() {
+			return data;
+		}
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import java.io.OutputStream;
+
+/**
+ * A response body stream which can discard what has been written to it, as long as nothing has reached the client yet.
+ */
+abstract class ResettableOutputStream extends OutputStream {
+	/**
+	 * @return true if any part of the body has been passed on to the servlet response
+	 */
+	abstract boolean isCommitted();
+
+	/**
+	 * Discards anything held so far, only possible while the response is uncommitted.
+	 */
+	abstract void reset();
+
+	/**
+	 * Frees any resources held by the stream without completing the response. Called once resolution has finished,
+	 * whether or not the body was written successfully.
+	 */
+	void release() {
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running counts of responses the {@link RestViewResolver} abandoned part way through.
+ */
+public class ResolutionStats {
+	private final AtomicLong deadlinesExceeded = new AtomicLong();
+	private final AtomicLong disconnects = new AtomicLong();
+
+	public void recordDeadlineExceeded() {
+		deadlinesExceeded.incrementAndGet();
+	}
+
+	public void recordDisconnect() {
+		disconnects.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of responses abandoned because the request was cancelled or passed its deadline
+	 */
+	public long getDeadlinesExceeded() {
+		return deadlinesExceeded.get();
+	}
+
+	/**
+	 * @return the number of responses abandoned because writing to the client failed, usually as it had gone away
+	 */
+	public long getDisconnects() {
+		return disconnects.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("deadlinesExceeded=%d, disconnects=%d", getDeadlinesExceeded(), getDisconnects());
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Holds back the start of a response body so that small responses can be sent with a Content-Length. Once more
+ * than the configured number of bytes has been written the held bytes are passed on and the rest of the body is
+ * streamed straight through to the servlet response.
+ * <p>
+ * The held bytes can also be hashed as they arrive, so that a response which is complete before it is committed gets
+ * a strong ETag and can be replaced with a 304 when it matches the client's If-None-Match.
+ */
+class ResponseOutputStream extends ResettableOutputStream {
+	private final HttpServletResponse res;
+	private final int limit;
+	private final long writeTimeout;
+	private final WriteTimeoutWatchdog watchdog;
+	private byte[] buffer = new byte[0];
+	private int count = 0;
+	private OutputStream out;
+	private Hasher hasher;
+	private String ifNoneMatch;
+
+	ResponseOutputStream(HttpServletResponse res, int limit) {
+		this(res, limit, 0, null);
+	}
+
+	/**
+	 * @param writeTimeout the longest a single write to the client may block, in milliseconds, or 0 for no limit
+	 * @param watchdog which enforces the write timeout
+	 */
+	ResponseOutputStream(HttpServletResponse res, int limit, long writeTimeout, WriteTimeoutWatchdog watchdog) {
+		this.res = res;
+		this.limit = limit;
+		this.writeTimeout = writeTimeout;
+		this.watchdog = watchdog;
+	}
+
+	/**
+	 * Hashes the body as it is held so that an ETag can be sent if the whole body is held.
+	 *
+	 * @param ifNoneMatch the request's If-None-Match header, or null if the request is not conditional
+	 */
+	void computeETag(String ifNoneMatch) {
+		this.ifNoneMatch = ifNoneMatch;
+		this.hasher = Hashing.murmur3_128().newHasher();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (out == null && count + len > limit) {
+			commit();
+		}
+
+		if (out != null) {
+			out.write(b, off, len);
+		} else {
+			if (count + len > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.min(limit, Math.max(count + len, buffer.length * 2)));
+			}
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+			if (hasher != null) {
+				hasher.putBytes(b, off, len);
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (out != null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Completes the response, setting the Content-Length (and ETag, if requested) if the whole body is still held. The
+	 * underlying servlet stream is flushed but left open for the container to close.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (out == null && hasher != null) {
+			String etag = ETags.strong(hasher.hash().toString());
+			res.setHeader("ETag", etag);
+			if (ETags.matches(ifNoneMatch, etag)) {
+				res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				buffer = null;
+				return;
+			}
+		}
+
+		if (out == null) {
+			res.setContentLength(count);
+			out = open();
+			out.write(buffer, 0, count);
+			buffer = null;
+		}
+		out.flush();
+	}
+
+	@Override
+	boolean isCommitted() {
+		return out != null;
+	}
+
+	@Override
+	void reset() {
+		if (isCommitted()) {
+			throw new IllegalStateException("Response body has already been committed");
+		}
+		count = 0;
+		if (hasher != null) {
+			hasher = Hashing.murmur3_128().newHasher();
+		}
+	}
+
+	@Override
+	void release() {
+		if (out instanceof WriteTimeoutOutputStream) {
+			((WriteTimeoutOutputStream) out).close();
+		}
+	}
+
+	private OutputStream open() throws IOException {
+		OutputStream servletStream = res.getOutputStream();
+		return writeTimeout > 0 ? new WriteTimeoutOutputStream(servletStream, writeTimeout, watchdog) : servletStream;
+	}
+
+	private void commit() throws IOException {
+		out = open();
+		out.write(buffer, 0, count);
+		buffer = null;
+		hasher = null;
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+import com.threewks.thundr.rest.serializer.Serializer;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The outcome of content negotiation for a request: the content type of the response, the serializer which will
+ * produce it and the serializer options taken from the request parameters. Negotiated once per request, by
+ * {@link com.threewks.thundr.rest.intercept.RestActionInterceptor#before} or otherwise by the
+ * {@link RestViewResolver}, and held as a request attribute.
+ */
+public class RestContext {
+	public static final String RequestAttribute = RestContext.class.getName();
+
+	private static final Function<String[], String> JoinValues = new Function<String[], String>() {
+		@Override
+		public String apply(String[] values) {
+			return values.length == 1 ? values[0] : StringUtils.join(values, ",");
+		}
+	};
+
+	private final String contentType;
+	private final Serializer serializer;
+	private final Map<String, String> options;
+	private final AtomicReference<Semaphore> permit = new AtomicReference<>();
+	// System.nanoTime() by which the response must be written, when hasDeadline is set
+	private volatile long deadline;
+	private volatile boolean hasDeadline = false;
+	private volatile boolean cancelled = false;
+
+	@SuppressWarnings("unchecked")
+	RestContext(HttpServletRequest req, String contentType, Serializer serializer) {
+		this.contentType = contentType;
+		this.serializer = serializer;
+		// A live view over the request parameters, values are only joined when a serializer asks for them
+		this.options = Maps.transformValues((Map<String, String[]>) req.getParameterMap(), JoinValues);
+	}
+
+	/**
+	 * @return the context already negotiated for the request, or null if negotiation has not happened yet
+	 */
+	public static RestContext get(HttpServletRequest req) {
+		return (RestContext) req.getAttribute(RequestAttribute);
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public Serializer getSerializer() {
+		return serializer;
+	}
+
+	/**
+	 * @return request parameters with multiple values joined by commas, passed to the serializer as its options
+	 */
+	public Map<String, String> getOptions() {
+		return options;
+	}
+
+	/**
+	 * Gives the request a deadline the given number of milliseconds from now, unless it already has an earlier one.
+	 * Serialization still in progress at the deadline is abandoned.
+	 */
+	public synchronized void setTimeout(long timeout) {
+		long requested = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		if (!hasDeadline || requested - deadline < 0) {
+			deadline = requested;
+			hasDeadline = true;
+		}
+	}
+
+	/**
+	 * Abandons the request's response, checked by serializers between elements.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * @return true if the request has been cancelled or its deadline has passed
+	 */
+	public boolean isCancelled() {
+		return cancelled || (hasDeadline && System.nanoTime() - deadline > 0);
+	}
+
+	/**
+	 * Records a permit of the endpoint's concurrency limit as held by this request, to be released by
+	 * {@link #releasePermit()} once the response has been written.
+	 */
+	public void holdPermit(Semaphore semaphore) {
+		permit.set(semaphore);
+	}
+
+	/**
+	 * Releases the permit held by this request, if any. Safe to call more than once.
+	 */
+	public void releasePermit() {
+		Semaphore semaphore = permit.getAndSet(null);
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+}
@@ -19,34 +19,67 @@ package com.threewks.thundr.rest;
 
 import com.threewks.thundr.action.method.ActionInterceptorRegistry;
 import com.threewks.thundr.injection.BaseModule;
+import com.threewks.thundr.injection.InjectionContext;
 import com.threewks.thundr.injection.UpdatableInjectionContext;
+import com.threewks.thundr.rest.cache.InMemoryResponseCache;
+import com.threewks.thundr.rest.cache.ResponseCache;
 import com.threewks.thundr.rest.intercept.Rest;
 import com.threewks.thundr.rest.intercept.RestActionInterceptor;
+import com.threewks.thundr.rest.serializer.Serializer;
+import com.threewks.thundr.rest.serializer.csv.CsvSerializer;
+import com.threewks.thundr.rest.serializer.json.CompactJsonSerializer;
 import com.threewks.thundr.rest.serializer.json.JsonSerializer;
+import com.threewks.thundr.rest.serializer.json.NdjsonSerializer;
+import com.threewks.thundr.rest.serializer.msgpack.MessagePackSerializer;
+import com.threewks.thundr.rest.serializer.protobuf.ProtobufSerializer;
 import com.threewks.thundr.rest.serializer.xml.XmlSerializer;
 import com.threewks.thundr.view.ViewResolverRegistry;
 import jodd.util.MimeTypes;
 
 public class RestModule extends BaseModule {
+	private RestViewResolver viewResolver;
+
 	@Override
 	public void configure(UpdatableInjectionContext injectionContext) {
 		ViewResolverRegistry viewResolverRegistry = injectionContext.get(ViewResolverRegistry.class);
-		RestViewResolver viewResolver = addViewResolvers(viewResolverRegistry);
+		viewResolver = addViewResolvers(viewResolverRegistry);
 
 		ActionInterceptorRegistry actionInterceptorRegistry = injectionContext.get(ActionInterceptorRegistry.class);
 		addActionInterceptors(viewResolver, actionInterceptorRegistry);
 	}
 
+	@Override
+	public void stop(InjectionContext injectionContext) {
+		if (viewResolver != null) {
+			viewResolver.shutdown();
+		}
+	}
+
 	protected void addActionInterceptors(RestViewResolver viewResolver, ActionInterceptorRegistry actionInterceptorRegistry) {
-		actionInterceptorRegistry.registerInterceptor(Rest.class, new RestActionInterceptor(viewResolver));
+		actionInterceptorRegistry.registerInterceptor(Rest.class, new RestActionInterceptor(viewResolver, createResponseCache()));
 	}
 
 	protected RestViewResolver addViewResolvers(ViewResolverRegistry viewResolverRegistry) {
 		// Instantiate view resolver and configure it with default/supplied serializers
 		RestViewResolver viewResolver = new RestViewResolver();
-		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JSON, new JsonSerializer());
-		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JAVASCRIPT, new JsonSerializer());
+		Serializer jsonSerializer = createJsonSerializer();
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JSON, jsonSerializer);
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JAVASCRIPT, jsonSerializer);
+		// Event stream data is JSON, this lets an EventSource's Accept header negotiate
+		viewResolver.addSerializer(EventStream.ContentType, jsonSerializer);
 		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, new XmlSerializer());
+		viewResolver.addSerializer(NdjsonSerializer.ContentType, new NdjsonSerializer());
+		viewResolver.addFormat(NdjsonSerializer.Format, NdjsonSerializer.ContentType);
+		viewResolver.addSerializer(CompactJsonSerializer.ContentType, new CompactJsonSerializer());
+		viewResolver.addFormat(CompactJsonSerializer.Format, CompactJsonSerializer.ContentType);
+		MessagePackSerializer messagePackSerializer = new MessagePackSerializer();
+		viewResolver.addSerializer(MessagePackSerializer.ContentType, messagePackSerializer);
+		viewResolver.addSerializer(MessagePackSerializer.LegacyContentType, messagePackSerializer);
+		viewResolver.addFormat(MessagePackSerializer.Format, MessagePackSerializer.ContentType);
+		viewResolver.addSerializer(ProtobufSerializer.ContentType, new ProtobufSerializer());
+		viewResolver.addFormat(ProtobufSerializer.Format, ProtobufSerializer.ContentType);
+		viewResolver.addSerializer(CsvSerializer.ContentType, new CsvSerializer());
+		viewResolver.addFormat(CsvSerializer.Format, CsvSerializer.ContentType);
 
 		// Add RestViewResolver to the view resolver registry
 		viewResolverRegistry.addResolver(RestView.class, viewResolver);
@@ -54,5 +87,20 @@ public class RestModule extends BaseModule {
 		return viewResolver;
 	}
 
+	/**
+	 * Creates the serializer used for JSON and JSONP responses. Override to return a
+	 * {@link com.threewks.thundr.rest.serializer.gson.GsonSerializer} to use Gson instead of json-lib.
+	 */
+	protected Serializer createJsonSerializer() {
+		return new JsonSerializer();
+	}
+
+	/**
+	 * Creates the server side cache used by endpoints which declare a {@link Rest#cacheTtl()}. Server side caching is
+	 * disabled by default, override to return an {@link InMemoryResponseCache} or another {@link ResponseCache}.
+	 */
+	protected ResponseCache createResponseCache() {
+		return null;
+	}
 
 }
\ No newline at end of file
@@ -17,31 +17,96 @@
  */
 package com.threewks.thundr.rest;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicates;
+import com.google.common.base.Splitter;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.rest.cache.CachedResponse;
+import com.threewks.thundr.rest.cache.ResponseCapture;
 import com.threewks.thundr.rest.dto.ErrorDto;
 import com.threewks.thundr.rest.exception.NotAcceptableException;
 import com.threewks.thundr.rest.serializer.Serializer;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import com.threewks.thundr.rest.serializer.csv.CsvSerializer;
+import com.threewks.thundr.rest.serializer.json.JsonSerializer;
 import com.threewks.thundr.view.ViewResolutionException;
 import com.threewks.thundr.view.ViewResolver;
 import jodd.util.MimeTypes;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.Arrays;
 import java.util.Map;
+import java.util.zip.Deflater;
 
 public class RestViewResolver implements ViewResolver<RestView> {
 
 	private static final String ContentTypeAny = "*/*";
 
+	/**
+	 * Responses up to this size are held in memory so they can be sent with a Content-Length
+	 */
+	public static final int DefaultContentLengthThreshold = 32 * 1024;
+
+	/**
+	 * Responses smaller than this are not worth the cost of compressing
+	 */
+	public static final int DefaultCompressionThreshold = 1024;
+
+	/**
+	 * Milliseconds an event stream may be idle before a heartbeat comment is sent to keep the connection open
+	 */
+	public static final long DefaultHeartbeatInterval = 15 * 1000;
+
+	private static final int DeflaterPoolSize = 64;
+
+	// Event data spanning several lines is sent as one data field per line
+	private static final Splitter EventLines = Splitter.onPattern("\r\n|\r|\n");
+	private static final CharMatcher LineBreaks = CharMatcher.anyOf("\r\n");
+	// Serializes event data when the application has no JSON serializer of its own registered
+	private static final Serializer EventDataSerializer = new JsonSerializer();
+
+	// Real traffic carries only a handful of distinct Accept headers
+	private static final int NegotiatedContentTypeCacheSize = 256;
+
+	// Formats which suit only some outputs, so are sent only when a client names them rather than for text/*
+	private static final ImmutableSet<String> ExplicitOnlyContentTypes = ImmutableSet.of(EventStream.ContentType, CsvSerializer.ContentType);
+
 	private String defaultContentType;
-	private Map<String, Serializer> serializers = Maps.newHashMap();
+	private int contentLengthThreshold = DefaultContentLengthThreshold;
+	private boolean etagsEnabled = true;
+	private boolean compressionEnabled = true;
+	private int compressionThreshold = DefaultCompressionThreshold;
+	private long heartbeatInterval = DefaultHeartbeatInterval;
+	private long writeTimeout = 0;
+	private final ResolutionStats stats = new ResolutionStats();
+	private final WriteTimeoutWatchdog writeTimeoutWatchdog = new WriteTimeoutWatchdog();
+	private DeflaterPool gzipDeflaters = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, true, DeflaterPoolSize);
+	private DeflaterPool deflateDeflaters = new DeflaterPool(Deflater.DEFAULT_COMPRESSION, false, DeflaterPoolSize);
+	private volatile ImmutableMap<String, Serializer> serializers = ImmutableMap.of();
+	private volatile ImmutableMap<String, String> formats = ImmutableMap.of();
+	private final LoadingCache<String, Optional<String>> negotiatedContentTypes = CacheBuilder.newBuilder()
+			.maximumSize(NegotiatedContentTypeCacheSize)
+			.build(new CacheLoader<String, Optional<String>>() {
+				@Override
+				public Optional<String> load(String accept) {
+					return Optional.fromNullable(AcceptHeader.parse(accept).select(serializers.keySet(), defaultContentType, ExplicitOnlyContentTypes));
+				}
+			});
 
 	public RestViewResolver() {
 		this(MimeTypes.MIME_APPLICATION_JSON);
@@ -51,35 +116,350 @@ public class RestViewResolver implements ViewResolver<RestView> {
 		this.defaultContentType = defaultResponseContentType;
 	}
 
-	public void addSerializer(String contentType, Serializer serializer) {
-		serializers.put(contentType, serializer);
+	/**
+	 * Registers a serializer for a content type, replacing any already registered for it. The registry is copied on
+	 * write, so requests being resolved at the same time see either the old or the new set of serializers without
+	 * locking.
+	 */
+	public synchronized void addSerializer(String contentType, Serializer serializer) {
+		Map<String, Serializer> updated = Maps.newLinkedHashMap(serializers);
+		updated.put(contentType, serializer);
+		serializers = ImmutableMap.copyOf(updated);
+		negotiatedContentTypes.invalidateAll();
+	}
+
+	/**
+	 * Maps a value of the format parameter to a content type, for formats which aren't known by their file extension.
+	 */
+	public synchronized void addFormat(String format, String contentType) {
+		Map<String, String> updated = Maps.newLinkedHashMap(formats);
+		updated.put(format, contentType);
+		formats = ImmutableMap.copyOf(updated);
 	}
 
 	public boolean canSerialize(String contentType) {
 		return serializers.containsKey(contentType);
 	}
 
+	/**
+	 * @return an immutable snapshot of the registered serializers by content type
+	 */
 	public Map<String, Serializer> getSerializers() {
 		return serializers;
 	}
 
+	public int getContentLengthThreshold() {
+		return contentLengthThreshold;
+	}
+
+	/**
+	 * Sets the largest response body which will be buffered in order to send a Content-Length header. Larger bodies
+	 * are streamed to the client as they are serialized. A threshold of 0 streams every response.
+	 */
+	public void setContentLengthThreshold(int contentLengthThreshold) {
+		this.contentLengthThreshold = contentLengthThreshold;
+	}
+
+	public boolean isETagsEnabled() {
+		return etagsEnabled;
+	}
+
+	/**
+	 * Enables hashing of successful GET and HEAD response bodies into a strong ETag, and answering a matching
+	 * If-None-Match with a 304. Only bodies within the Content-Length threshold are hashed, since the header has to be
+	 * sent before a streamed body. Enabled by default. ETags supplied by a
+	 * {@link com.threewks.thundr.rest.intercept.VersionProvider} are always used.
+	 */
+	public void setETagsEnabled(boolean etagsEnabled) {
+		this.etagsEnabled = etagsEnabled;
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	/**
+	 * Enables gzip/deflate compression of response bodies for clients which send a matching Accept-Encoding header.
+	 * Compression is enabled by default.
+	 */
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Sets the smallest response body, in uncompressed bytes, which will be compressed. Smaller bodies are sent as is.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public int getCompressionLevel() {
+		return gzipDeflaters.getLevel();
+	}
+
+	/**
+	 * Sets the zlib compression level, from {@link Deflater#BEST_SPEED} (1) to {@link Deflater#BEST_COMPRESSION} (9),
+	 * or {@link Deflater#DEFAULT_COMPRESSION}.
+	 */
+	public void setCompressionLevel(int compressionLevel) {
+		if (compressionLevel != Deflater.DEFAULT_COMPRESSION && (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION)) {
+			throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+		}
+		this.gzipDeflaters = new DeflaterPool(compressionLevel, true, DeflaterPoolSize);
+		this.deflateDeflaters = new DeflaterPool(compressionLevel, false, DeflaterPoolSize);
+	}
+
+	public long getHeartbeatInterval() {
+		return heartbeatInterval;
+	}
+
+	/**
+	 * Sets how many milliseconds an {@link EventStream} may go without an event before a heartbeat comment is sent.
+	 */
+	public void setHeartbeatInterval(long heartbeatInterval) {
+		this.heartbeatInterval = heartbeatInterval;
+	}
+
+	public long getWriteTimeout() {
+		return writeTimeout;
+	}
+
+	/**
+	 * Sets the longest, in milliseconds, that a single write to a client may block before the connection is closed,
+	 * so that clients which stop reading can't hold request threads indefinitely. 0, the default, leaves writes to the
+	 * container's own timeouts.
+	 */
+	public void setWriteTimeout(long writeTimeout) {
+		this.writeTimeout = writeTimeout;
+	}
+
+	/**
+	 * Stops the threads which enforce the write timeout, so that they don't outlive the application. Writes made
+	 * afterwards are no longer timed out. Called by {@link RestModule} when the application stops.
+	 */
+	public void shutdown() {
+		writeTimeoutWatchdog.shutdown();
+	}
+
+	boolean isShutdown() {
+		return writeTimeoutWatchdog.isShutdown();
+	}
+
+	/**
+	 * @return counts of responses abandoned because the request passed its deadline or the client went away
+	 */
+	public ResolutionStats getStats() {
+		return stats;
+	}
+
+	/**
+	 * Serializes the view's output to the response. Outputs which are {@link AutoCloseable}, such as database cursors,
+	 * are closed once resolution finishes, whether it completed, failed or the client went away part way through, and
+	 * any concurrency permit held by the request is released.
+	 */
 	@Override
 	public void resolve(HttpServletRequest req, HttpServletResponse res, RestView view) {
-		String responseContentType = determineResponseContentType(req);
-		String body = serializeOutput(responseContentType, view.getOutput(), flattenParameterMap(req.getParameterMap()));
+		try {
+			resolveOutput(req, res, view);
+		} finally {
+			closeOutput(view.getOutput());
+			RestContext context = RestContext.get(req);
+			if (context != null) {
+				context.releasePermit();
+			}
+		}
+	}
+
+	private void resolveOutput(HttpServletRequest req, HttpServletResponse res, RestView view) {
+		RestContext context = negotiate(req);
+		// The format is negotiated from Accept, so shared caches must key on it whether or not there's a cache policy
+		res.setHeader("Vary", "Accept");
+		if (view.getOutput() instanceof EventStream) {
+			streamEvents(res, (EventStream) view.getOutput(), context);
+			return;
+		}
+
+		String responseContentType = context.getContentType();
+		Serializer serializer = context.getSerializer();
 		String charset = view.getCharacterEncoding();
 
 		res.setCharacterEncoding(charset);
 		res.setContentType(responseContentType);
-		res.setContentLength(body.getBytes(Charset.forName(charset)).length);
 		res.setStatus(view.getStatus());
+		if (compressionEnabled) {
+			// Caches must key on Accept-Encoding whichever encoding this particular response ends up with
+			res.setHeader("Vary", "Accept, Accept-Encoding");
+		}
+
+		// An ETag known up front, from a VersionProvider, saves hashing the body
+		String etag = (String) req.getAttribute(ETags.RequestAttribute);
+		boolean cacheable = isCacheable(req, view);
+		if (etag != null && (cacheable || view.getStatus() == HttpServletResponse.SC_NOT_MODIFIED)) {
+			res.setHeader("ETag", etag);
+			if (ETags.isConditional(req) && ETags.matches(req.getHeader("If-None-Match"), etag)) {
+				res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+		}
+		if (view.getStatus() == HttpServletResponse.SC_NOT_MODIFIED) {
+			return;
+		}
 
+		ResettableOutputStream out = openOutputStream(req, res, etagsEnabled && cacheable && etag == null);
+		ResponseCapture capture = (ResponseCapture) req.getAttribute(ResponseCapture.RequestAttribute);
+		if (capture != null && view.getStatus() == HttpServletResponse.SC_OK && !(view.getOutput() instanceof CachedResponse)) {
+			out = new CapturingOutputStream(out, capture, responseContentType, charset);
+		}
+		Cancellation.enter(context);
+		try {
+			serializeOutput(serializer, view.getOutput(), context.getOptions(), out, Charset.forName(charset));
+			out.close();
+		} catch (RequestCancelledException e) {
+			stats.recordDeadlineExceeded();
+			Logger.info("Abandoned the response for %s: %s", req.getRequestURI(), e.getMessage());
+			if (!out.isCommitted()) {
+				// Drops the body held so far along with the headers describing it, such as Content-Encoding and ETag
+				out.reset();
+				res.reset();
+				res.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+			}
+		} catch (IOException e) {
+			stats.recordDisconnect();
+			throw new ViewResolutionException(e, "Failed to resolve data view for content-type: %s", responseContentType);
+		} finally {
+			Cancellation.exit();
+			out.release();
+		}
+	}
+
+	/**
+	 * Writes events to the client as they are published until the stream ends or the client disconnects. Event
+	 * streams are sent uncompressed and unbuffered, and each event's data is serialized as JSON, whatever format was
+	 * negotiated, because an event stream is a text format read by EventSource clients.
+	 */
+	private void streamEvents(HttpServletResponse res, EventStream stream, RestContext context) {
+		Serializer serializer = serializers.get(MimeTypes.MIME_APPLICATION_JSON);
+		if (serializer == null) {
+			serializer = EventDataSerializer;
+		}
+		// A JSONP callback would wrap each event's data in a script which no EventSource can use
+		Map<String, String> options = Maps.filterKeys(context.getOptions(), Predicates.not(Predicates.equalTo(JsonSerializer.OPTION_CALLBACK)));
+
+		res.setCharacterEncoding(Charsets.UTF_8.name());
+		res.setContentType(EventStream.ContentType);
+		res.setStatus(HttpServletResponse.SC_OK);
+		res.setHeader("Cache-Control", "no-cache");
+		// Stops nginx and similar proxies holding events back in their own buffers
+		res.setHeader("X-Accel-Buffering", "no");
+
+		WriteTimeoutOutputStream timed = null;
 		try {
-			res.getWriter().write(body);
+			OutputStream out = res.getOutputStream();
+			if (writeTimeout > 0) {
+				out = timed = new WriteTimeoutOutputStream(out, writeTimeout, writeTimeoutWatchdog);
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+			if (stream.getRetry() >= 0) {
+				writer.write("retry: " + stream.getRetry() + "\n\n");
+			}
+			writer.flush();
+
+			while (!stream.isFinished()) {
+				EventStream.Event event = stream.poll(heartbeatInterval);
+				if (event == null) {
+					if (!stream.isFinished()) {
+						writer.write(":\n\n");
+					}
+				}
+				while (event != null) {
+					writeEvent(writer, event, serializer, options);
+					event = stream.poll(0);
+				}
+				writer.flush();
+			}
 		} catch (IOException e) {
-			throw new ViewResolutionException(
-					e, "Failed to resolve data view for content-type: %s body: %s", responseContentType, body);
+			Logger.debug("Event stream closed by the client: %s", e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			stream.close();
+			if (timed != null) {
+				timed.close();
+			}
+		}
+	}
+
+	private static void writeEvent(Writer writer, EventStream.Event event, Serializer serializer, Map<String, String> options) throws IOException {
+		if (event.getId() != null) {
+			writeField(writer, "id", LineBreaks.removeFrom(event.getId()));
+		}
+		if (event.getName() != null) {
+			writeField(writer, "event", LineBreaks.removeFrom(event.getName()));
+		}
+		String data = event.getData() == null ? "" : serializer.marshal(event.getData(), options);
+		for (String line : EventLines.split(data)) {
+			writeField(writer, "data", line);
+		}
+		writer.write('\n');
+	}
+
+	private static void writeField(Writer writer, String field, String value) throws IOException {
+		writer.write(field);
+		writer.write(": ");
+		writer.write(value);
+		writer.write('\n');
+	}
+
+	private ResettableOutputStream openOutputStream(HttpServletRequest req, HttpServletResponse res, boolean computeETag) {
+		ResponseOutputStream out = new ResponseOutputStream(res, contentLengthThreshold, writeTimeout, writeTimeoutWatchdog);
+		if (computeETag) {
+			out.computeETag(ETags.isConditional(req) ? req.getHeader("If-None-Match") : null);
 		}
+		if (!compressionEnabled) {
+			return out;
+		}
+
+		ContentEncoding encoding = ContentEncoding.negotiate(req.getHeader("Accept-Encoding"));
+		if (encoding == null) {
+			return out;
+		}
+		DeflaterPool pool = encoding == ContentEncoding.Gzip ? gzipDeflaters : deflateDeflaters;
+		return new CompressingOutputStream(res, out, encoding, pool, compressionThreshold);
+	}
+
+	private boolean isCacheable(HttpServletRequest req, RestView view) {
+		String method = req.getMethod();
+		return view.getStatus() == HttpServletResponse.SC_OK
+				&& ("GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method));
+	}
+
+	/**
+	 * @return the strong ETag for the given version of a resource in the representation negotiated for the request,
+	 * taking in the content coding when the response may be compressed
+	 */
+	public String versionETag(HttpServletRequest req, String version) {
+		ContentEncoding encoding = compressionEnabled ? ContentEncoding.negotiate(req.getHeader("Accept-Encoding")) : null;
+		return ETags.strong(version, negotiate(req).getContentType(), encoding == null ? null : encoding.getToken());
+	}
+
+	/**
+	 * Negotiates the response content type and serializer for the request, once. The result is kept as the request's
+	 * {@link RestContext} and reused by later calls.
+	 *
+	 * @throws NotAcceptableException if no serializer can produce the requested content type
+	 */
+	public RestContext negotiate(HttpServletRequest req) {
+		RestContext context = RestContext.get(req);
+		if (context == null) {
+			String contentType = determineResponseContentType(req);
+			context = new RestContext(req, contentType, findSerializer(contentType));
+			req.setAttribute(RestContext.RequestAttribute, context);
+		}
+		return context;
 	}
 
 	public String determineResponseContentType(HttpServletRequest req) {
@@ -104,41 +484,71 @@ public class RestViewResolver implements ViewResolver<RestView> {
 		return defaultContentType;
 	}
 
-	private String serializeOutput(String contentType, Object output, Map<String, String> options) {
+	private Serializer findSerializer(String contentType) {
 		Serializer serializer = serializers.get(contentType);
 		if (serializer == null) {
 			// Fine to throw exception here to be handled by container since we don't have any idea about what
 			// an acceptable format might be. Everything else ought to be serialized as the requested content type.
 			throw new NotAcceptableException("Not acceptable: %s", contentType);
 		}
+		return serializer;
+	}
 
+	private void serializeOutput(Serializer serializer, Object output, Map<String, String> options, ResettableOutputStream out, Charset charset) throws IOException {
 		if (output == null) {
-			return "";
+			return;
 		}
 
 		try {
-			return serializer.marshal(output, options);
+			marshal(serializer, output, options, out, charset);
+		} catch (RequestCancelledException e) {
+			throw e;
 		} catch (Throwable t) {
+			if (t instanceof IOException && out.isCommitted()) {
+				// Writing to the client failed, most likely because it went away, so there is no one to tell
+				throw (IOException) t;
+			}
 			Logger.error("Unhandled exception when serializing output object in RestViewResolver: %s",
 					ExceptionUtils.getStackTrace(t));
-			return serializer.marshal(new ErrorDto(t.getMessage()));
+			if (out.isCommitted()) {
+				// Part of the body has already gone to the client, all we can do is abandon the response
+				throw new ViewResolutionException(t, "Failed to serialize output after the response was committed: %s", t.getMessage());
+			}
+			out.reset();
+			marshal(serializer, new ErrorDto(t.getMessage()), null, out, charset);
+		}
+	}
+
+	private static void closeOutput(Object output) {
+		if (output instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) output).close();
+			} catch (Exception e) {
+				Logger.warn("Failed to close output of type %s: %s", output.getClass().getName(), e.getMessage());
+			}
 		}
 	}
 
-	@SuppressWarnings("unchecked")
-	private Map<String, String> flattenParameterMap(Map parameterMap) {
-		Map<String, String> flatMap = Maps.newHashMap();
-		for (Object o : parameterMap.entrySet()) {
-			Map.Entry<String, String[]> entry = (Map.Entry<String, String[]>) o;
-			flatMap.put(entry.getKey(), StringUtils.join(entry.getValue(), ","));
+	private static void marshal(Serializer serializer, Object output, Map<String, String> options, OutputStream out, Charset charset) throws IOException {
+		if (output instanceof CachedResponse) {
+			// Already serialized, by an earlier request for the same resource
+			out.write(((CachedResponse) output).getBody());
+		} else if (serializer instanceof StreamingSerializer) {
+			((StreamingSerializer) serializer).marshal(output, options, out, charset);
+		} else {
+			out.write(serializer.marshal(output, options).getBytes(charset));
 		}
-		return flatMap;
 	}
 
 	private String determineContentTypeFromFormatParameter(HttpServletRequest req) {
 		String format = req.getParameter("format");
 		if (format != null) {
-			String contentType = MimeTypes.lookupMimeType(format);
+			String contentType = formats.get(format);
+			if (contentType != null) {
+				return contentType;
+			}
+
+			contentType = MimeTypes.lookupMimeType(format);
 			if (contentType == null) {
 				return format;
 			} else if (MimeTypes.MIME_APPLICATION_JSON.equals(contentType)) {
@@ -159,25 +569,10 @@ public class RestViewResolver implements ViewResolver<RestView> {
 	}
 
 	private String determineContentTypeFromAcceptHeader(HttpServletRequest req) {
+		// Pick the registered content type the client rates highest, ignoring a bare */* in which case we fall
+		// through to the default. A type/* range prefers the default, then the first registered type it matches.
+		// Results are memoized per distinct header value.
 		String accept = req.getHeader("Accept");
-		if (accept != null) {
-			// Accept header often contains a range of different content types which *should*
-			// ordered from least specific (e.g. */*) to most (e.g. application/xml) - see RFC26216-sec14.
-			// Here we attempt to match the most specific content type for which we have
-			// a serializer for.
-			for (String contentType : Lists.reverse(Arrays.asList(StringUtils.split(accept, ',')))) {
-				if (contentType.contains(";")) {
-					// Discard accept params and extensions, we don't care about them
-					contentType = contentType.replaceAll(";.*", "");
-				}
-
-				contentType = contentType.trim();
-				if (serializers.containsKey(contentType)) {
-					return contentType;
-				}
-			}
-		}
-
-		return null;
+		return accept == null ? null : negotiatedContentTypes.getUnchecked(accept).orNull();
 	}
 }
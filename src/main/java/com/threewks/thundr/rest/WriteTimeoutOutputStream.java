@@ -0,0 +1,125 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.threewks.thundr.logger.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds how long a single write to the servlet response may block. A client which stops reading leaves the request
+ * thread stuck in a socket write until the TCP connection gives up, which can take minutes. The resolver's
+ * {@link WriteTimeoutWatchdog} checks every watched stream once a second, and closes the underlying stream of any
+ * write which has been blocked for longer than the timeout. Closing the connection fails the blocked write, freeing
+ * the thread, and later writes fail at once.
+ * <p>
+ * Servlet streams aren't thread safe and closing one usually flushes it, which can block on the same stalled socket.
+ * So the watchdog only marks a stream as timed out and hands the close to one of its closer threads: a close which
+ * blocks holds up one closer thread, never the watchdog or any other stream's timeout. How well the close frees the
+ * request thread still depends on the container, so where the connector supports a socket write timeout that is the
+ * more reliable place to set one, with this as a fallback.
+ * <p>
+ * The timeout applies to each write rather than the response as a whole, so a slow but steady client is unaffected.
+ */
+class WriteTimeoutOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final long timeoutNanos;
+	private final WriteTimeoutWatchdog watchdog;
+	private volatile long writeStarted = 0;
+	private volatile boolean timedOut = false;
+
+	/**
+	 * @param timeout the longest a write may block, in milliseconds
+	 */
+	WriteTimeoutOutputStream(OutputStream out, long timeout, WriteTimeoutWatchdog watchdog) {
+		this.out = out;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+		this.watchdog = watchdog;
+		watchdog.watch(this);
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		begin();
+		try {
+			out.write(b);
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		begin();
+		try {
+			out.write(b, off, len);
+		} finally {
+			end();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		begin();
+		try {
+			out.flush();
+		} finally {
+			end();
+		}
+	}
+
+	/**
+	 * Stops watching the stream. The underlying stream is left open for the container to close.
+	 */
+	@Override
+	public void close() {
+		watchdog.unwatch(this);
+	}
+
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	private void begin() throws IOException {
+		if (timedOut) {
+			throw new IOException("A write to the client timed out, the connection has been closed");
+		}
+		// Never 0, which marks the stream as idle
+		writeStarted = System.nanoTime() | 1;
+	}
+
+	private void end() {
+		writeStarted = 0;
+	}
+
+	/**
+	 * Closes the underlying stream on a closer thread if a write has been blocked for longer than the timeout. Never
+	 * blocks itself, whatever the underlying stream does.
+	 */
+	void expire(long now) {
+		long started = writeStarted;
+		if (started != 0 && now - started > timeoutNanos && !timedOut) {
+			timedOut = true;
+			watchdog.unwatch(this);
+			Logger.warn("Closing a response after a write was blocked for more than %dms", TimeUnit.NANOSECONDS.toMillis(timeoutNanos));
+			watchdog.close(out);
+		}
+	}
+}
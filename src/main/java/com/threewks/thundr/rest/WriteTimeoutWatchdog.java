@@ -0,0 +1,127 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owns the threads behind a {@link RestViewResolver}'s write timeouts: a watchdog which checks every watched
+ * {@link WriteTimeoutOutputStream} once a second, and a small pool of closer threads which close the streams whose
+ * writes have timed out. A close which blocks holds up one closer thread, never the watchdog; if every closer is
+ * blocked, further closes wait their turn. The threads are started with the first watched stream and stopped by
+ * {@link #shutdown()}, after which streams are no longer watched.
+ */
+class WriteTimeoutWatchdog {
+	static final int MaxClosers = 4;
+
+	private static final long Interval = 1000;
+	private static final long CloserKeepAlive = 60;
+
+	private final Set<WriteTimeoutOutputStream> watched = Sets.newConcurrentHashSet();
+	private ScheduledExecutorService watchdog;
+	private ThreadPoolExecutor closer;
+	private boolean shutdown = false;
+
+	synchronized void watch(WriteTimeoutOutputStream stream) {
+		if (shutdown) {
+			return;
+		}
+		watched.add(stream);
+		if (watchdog == null) {
+			watchdog = Executors.newSingleThreadScheduledExecutor(daemonThreads("thundr-rest-write-watchdog"));
+			watchdog.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					long now = System.nanoTime();
+					for (WriteTimeoutOutputStream stream : watched) {
+						stream.expire(now);
+					}
+				}
+			}, Interval, Interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	void unwatch(WriteTimeoutOutputStream stream) {
+		watched.remove(stream);
+	}
+
+	/**
+	 * Closes the given stream on a closer thread, without blocking the caller.
+	 */
+	synchronized void close(final OutputStream out) {
+		if (shutdown) {
+			return;
+		}
+		if (closer == null) {
+			closer = new ThreadPoolExecutor(MaxClosers, MaxClosers, CloserKeepAlive, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					daemonThreads("thundr-rest-write-closer"));
+			closer.allowCoreThreadTimeOut(true);
+		}
+		closer.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					out.close();
+				} catch (IOException | RuntimeException e) {
+					// The connection is being abandoned either way
+				}
+			}
+		});
+	}
+
+	/**
+	 * Stops the watchdog and closer threads. Closes already handed to a closer thread are abandoned.
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		watched.clear();
+		if (watchdog != null) {
+			watchdog.shutdownNow();
+			watchdog = null;
+		}
+		if (closer != null) {
+			closer.shutdownNow();
+			closer = null;
+		}
+	}
+
+	synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A serialized response body along with what is needed to send it again: the content type and character encoding it
+ * was serialized with, and how long it may be reused for.
+ */
+public class CachedResponse {
+	private final String contentType;
+	private final String characterEncoding;
+	private final byte[] body;
+	private final long created;
+	private final long expires;
+	// When the current refresh was claimed, or 0 if none has been
+	private final AtomicLong refreshClaimed = new AtomicLong(0);
+
+	public CachedResponse(String contentType, String characterEncoding, byte[] body, long created, long expires) {
+		this.contentType = contentType;
+		this.characterEncoding = characterEncoding;
+		this.body = body;
+		this.created = created;
+		this.expires = expires;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getCharacterEncoding() {
+		return characterEncoding;
+	}
+
+	/**
+	 * @return the serialized body, which must not be modified
+	 */
+	public byte[] getBody() {
+		return body;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getExpires() {
+		return expires;
+	}
+
+	public boolean isExpired(long now) {
+		return now >= expires;
+	}
+
+	/**
+	 * @return true once the given fraction of the entry's time to live has passed
+	 */
+	public boolean isDueForRefresh(long now, double refreshAheadFactor) {
+		return now >= created + (long) ((expires - created) * refreshAheadFactor);
+	}
+
+	/**
+	 * Claims the right to refresh this entry ahead of its expiry. Only one caller succeeds at a time, so a hot entry is
+	 * recomputed by one request while the others continue to be served from the cache. A successful refresh replaces
+	 * the entry; a claim whose refresh failed or wasn't cacheable lapses after the given timeout, and the entry can be
+	 * claimed again.
+	 *
+	 * @param now the current time in milliseconds
+	 * @param claimTimeout how long, in milliseconds, a claim holds off other refreshes
+	 */
+	public boolean claimRefresh(long now, long claimTimeout) {
+		long claimed = refreshClaimed.get();
+		if (claimed != 0 && now - claimed < claimTimeout) {
+			return false;
+		}
+		// Never 0, which marks the entry as unclaimed
+		return refreshClaimed.compareAndSet(claimed, now == 0 ? 1 : now);
+	}
+}
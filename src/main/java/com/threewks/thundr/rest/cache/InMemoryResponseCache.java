@@ -0,0 +1,100 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * A {@link ResponseCache} held on the heap, bounded by the total size of the bodies it holds. When full the least
+ * recently used entries are evicted first. Each entry carries its own expiry, and expired entries are treated as misses.
+ */
+public class InMemoryResponseCache implements ResponseCache {
+	public static final long DefaultMaximumBytes = 16 * 1024 * 1024;
+
+	private final ResponseCacheStats stats = new ResponseCacheStats();
+	private final Cache<String, CachedResponse> cache;
+
+	public InMemoryResponseCache() {
+		this(DefaultMaximumBytes);
+	}
+
+	public InMemoryResponseCache(long maximumBytes) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(maximumBytes)
+				.weigher(new Weigher<String, CachedResponse>() {
+					@Override
+					public int weigh(String key, CachedResponse response) {
+						return key.length() * 2 + response.getBody().length;
+					}
+				})
+				.removalListener(new RemovalListener<String, CachedResponse>() {
+					@Override
+					public void onRemoval(RemovalNotification<String, CachedResponse> notification) {
+						if (notification.getCause() == RemovalCause.SIZE) {
+							stats.recordEviction();
+						}
+					}
+				})
+				.build();
+	}
+
+	@Override
+	public CachedResponse get(String key) {
+		CachedResponse response = cache.getIfPresent(key);
+		if (response != null && response.isExpired(System.currentTimeMillis())) {
+			cache.asMap().remove(key, response);
+			response = null;
+		}
+
+		if (response == null) {
+			stats.recordMiss();
+		} else {
+			stats.recordHit();
+		}
+		return response;
+	}
+
+	@Override
+	public void put(String key, CachedResponse response) {
+		cache.put(key, response);
+	}
+
+	@Override
+	public void invalidate(String key) {
+		cache.invalidate(key);
+	}
+
+	@Override
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public ResponseCacheStats getStats() {
+		return stats;
+	}
+
+	public long size() {
+		return cache.size();
+	}
+}
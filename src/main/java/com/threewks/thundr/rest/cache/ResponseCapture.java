@@ -0,0 +1,99 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.cache;
+
+import com.google.common.collect.Lists;
+import com.google.common.escape.Escaper;
+import com.google.common.net.UrlEscapers;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Asks the {@link com.threewks.thundr.rest.RestViewResolver} to keep a copy of the response body it serializes for a
+ * request, and stores the copy in a {@link ResponseCache} once the body has been written successfully.
+ */
+public class ResponseCapture {
+	/**
+	 * Request attribute under which the capture for the current request is held
+	 */
+	public static final String RequestAttribute = ResponseCapture.class.getName();
+
+	/**
+	 * Bodies larger than this are not worth holding in the cache
+	 */
+	public static final int DefaultMaximumBytes = 1024 * 1024;
+
+	private static final Escaper KeyEscaper = UrlEscapers.urlFormParameterEscaper();
+
+	private final ResponseCache cache;
+	private final String key;
+	private final long ttlMillis;
+	private final int maximumBytes;
+
+	public ResponseCapture(ResponseCache cache, String key, long ttlMillis) {
+		this(cache, key, ttlMillis, DefaultMaximumBytes);
+	}
+
+	public ResponseCapture(ResponseCache cache, String key, long ttlMillis, int maximumBytes) {
+		this.cache = cache;
+		this.key = key;
+		this.ttlMillis = ttlMillis;
+		this.maximumBytes = maximumBytes;
+	}
+
+	public int getMaximumBytes() {
+		return maximumBytes;
+	}
+
+	/**
+	 * Stores the fully serialized body.
+	 */
+	public void complete(String contentType, String characterEncoding, byte[] body) {
+		long now = System.currentTimeMillis();
+		cache.put(key, new CachedResponse(contentType, characterEncoding, body, now, now + ttlMillis));
+	}
+
+	/**
+	 * Builds the cache key for a request from its method, path, query parameters in name order and the content type
+	 * negotiated for the response. Every part is form encoded, so the separators between them can't appear within them
+	 * and different requests never share a key.
+	 */
+	@SuppressWarnings("unchecked")
+	public static String key(HttpServletRequest req, String contentType) {
+		Map<String, String[]> parameters = req.getParameterMap();
+		List<String> names = Lists.newArrayList(parameters.keySet());
+		Collections.sort(names);
+
+		StringBuilder key = new StringBuilder();
+		key.append(escape(req.getMethod())).append(' ').append(escape(req.getRequestURI())).append('?');
+		for (String name : names) {
+			for (String value : parameters.get(name)) {
+				key.append(escape(name)).append('=').append(escape(value)).append('&');
+			}
+		}
+		return key.append(' ').append(escape(contentType)).toString();
+	}
+
+	private static String escape(String part) {
+		return KeyEscaper.escape(StringUtils.defaultString(part));
+	}
+}
@@ -18,6 +18,8 @@
 package com.threewks.thundr.rest.dto;
 
 
+import com.threewks.thundr.rest.serializer.protobuf.ProtoField;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 @XmlRootElement(name = "error")
@@ -33,6 +35,7 @@ public class ErrorDto {
 		this.message = message;
 	}
 
+	@ProtoField(1)
 	public String getError() {
 		return this.message;
 	}
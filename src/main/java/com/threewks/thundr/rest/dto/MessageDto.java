@@ -17,6 +17,8 @@
  */
 package com.threewks.thundr.rest.dto;
 
+import com.threewks.thundr.rest.serializer.protobuf.ProtoField;
+
 import javax.xml.bind.annotation.XmlRootElement;
 
 @XmlRootElement(name = "messages")
@@ -32,6 +34,7 @@ public class MessageDto {
 		this.message = message;
 	}
 
+	@ProtoField(1)
 	public String getMessage() {
 		return this.message;
 	}
@@ -0,0 +1,33 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.exception;
+
+import com.threewks.thundr.http.exception.HttpStatusException;
+
+import javax.servlet.http.HttpServletResponse;
+
+public class ServiceUnavailableException extends HttpStatusException {
+
+	public ServiceUnavailableException(String format, Object... formatArgs) {
+		super(HttpServletResponse.SC_SERVICE_UNAVAILABLE, format, formatArgs);
+	}
+
+	public ServiceUnavailableException(Throwable cause, String format, Object... formatArgs) {
+		super(cause, HttpServletResponse.SC_SERVICE_UNAVAILABLE, format, formatArgs);
+	}
+}
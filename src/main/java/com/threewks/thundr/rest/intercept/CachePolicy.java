@@ -0,0 +1,73 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.intercept;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the caching attributes of a {@link Rest} annotation into response headers.
+ */
+class CachePolicy {
+	/**
+	 * @return the Cache-Control header value for the annotation, or null if it declares no caching policy
+	 */
+	static String cacheControl(Rest annotation) {
+		if (annotation.noStore()) {
+			return "no-store";
+		}
+
+		List<String> directives = new ArrayList<>();
+		if (annotation.visibility() == Rest.Visibility.Public) {
+			directives.add("public");
+		} else if (annotation.visibility() == Rest.Visibility.Private) {
+			directives.add("private");
+		}
+		if (annotation.maxAge() >= 0) {
+			directives.add("max-age=" + annotation.maxAge());
+		}
+		if (annotation.sMaxAge() >= 0 && annotation.visibility() != Rest.Visibility.Private) {
+			directives.add("s-maxage=" + annotation.sMaxAge());
+		}
+		if (annotation.staleWhileRevalidate() >= 0) {
+			directives.add("stale-while-revalidate=" + annotation.staleWhileRevalidate());
+		}
+		return directives.isEmpty() ? null : StringUtils.join(directives, ", ");
+	}
+
+	/**
+	 * Sets Cache-Control and Expires for the annotation's policy. Setting them again, as the 304 and response cache paths
+	 * may, replaces rather than repeats them. Vary is left to the view resolver, which negotiates every response.
+	 */
+	static void apply(Rest annotation, HttpServletResponse res) {
+		String cacheControl = cacheControl(annotation);
+		if (cacheControl == null) {
+			return;
+		}
+
+		res.setHeader("Cache-Control", cacheControl);
+		if (annotation.noStore()) {
+			res.setDateHeader("Expires", 0);
+		} else if (annotation.maxAge() >= 0) {
+			res.setDateHeader("Expires", System.currentTimeMillis() + annotation.maxAge() * 1000L);
+		}
+	}
+}
@@ -26,4 +26,76 @@ import java.lang.annotation.Target;
 @Target(value = { ElementType.METHOD })
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Rest {
+	/**
+	 * A {@link VersionProvider} used to answer conditional GETs before the controller is invoked
+	 */
+	Class<? extends VersionProvider> version() default VersionProvider.None.class;
+
+	/**
+	 * Seconds for which any cache may reuse a successful response (Cache-Control max-age and Expires). Negative values
+	 * leave caching headers unset.
+	 */
+	int maxAge() default -1;
+
+	/**
+	 * Seconds for which shared caches such as proxies and CDNs may reuse a successful response, overriding
+	 * {@link #maxAge()} for them. Negative values leave s-maxage unset.
+	 */
+	int sMaxAge() default -1;
+
+	/**
+	 * Seconds after expiry during which a cache may serve a stale response while it revalidates in the background.
+	 * Negative values leave stale-while-revalidate unset.
+	 */
+	int staleWhileRevalidate() default -1;
+
+	/**
+	 * Which caches may store a successful response
+	 */
+	Visibility visibility() default Visibility.Default;
+
+	/**
+	 * Forbids caches from storing responses at all, overriding the other caching attributes
+	 */
+	boolean noStore() default false;
+
+	/**
+	 * Seconds for which successful GET and HEAD responses are kept in the server side
+	 * {@link com.threewks.thundr.rest.cache.ResponseCache} and replayed without invoking the controller. Requires the
+	 * {@link RestActionInterceptor} to have been given a cache. Zero or negative values disable server side caching.
+	 */
+	int cacheTtl() default -1;
+
+	/**
+	 * Seconds to wait for a {@link java.util.concurrent.Future} output to complete before responding with a 504 Gateway
+	 * Timeout. Zero or negative values use the {@link RestActionInterceptor}'s default.
+	 */
+	int timeout() default -1;
+
+	/**
+	 * Most requests to this endpoint which may be in progress at once, from the controller being invoked until the
+	 * response has been written. Further requests are answered with a 503 Service Unavailable, after waiting up to the
+	 * {@link RestActionInterceptor}'s concurrency wait for a request to finish. Zero or negative values leave the
+	 * endpoint unlimited.
+	 * <p>
+	 * The limit belongs to the annotated controller method: every route mapped to the method shares it, whatever the
+	 * URL's path parameters, and two methods declaring the same limit each get their own.
+	 */
+	int maxConcurrency() default -1;
+
+	/**
+	 * Seconds after the request arrives by which the response must have been written. Serialization still in progress
+	 * at the deadline is abandoned. A shorter deadline sent by the client in the {@link RestActionInterceptor}'s
+	 * deadline header takes precedence. Zero or negative values leave the deadline to the client.
+	 */
+	int deadline() default -1;
+
+	enum Visibility {
+		/** Leave it to caches to decide, based on the request */
+		Default,
+		/** Any cache may store the response, even for authenticated requests */
+		Public,
+		/** Only the client's own cache may store the response */
+		Private
+	}
 }
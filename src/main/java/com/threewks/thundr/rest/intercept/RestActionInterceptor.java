@@ -18,38 +18,296 @@
 package com.threewks.thundr.rest.intercept;
 
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.threewks.thundr.action.method.ActionInterceptor;
 import com.threewks.thundr.http.exception.HttpStatusException;
 import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.rest.ETags;
+import com.threewks.thundr.rest.RestContext;
+import com.threewks.thundr.rest.cache.CachedResponse;
+import com.threewks.thundr.rest.cache.ResponseCache;
+import com.threewks.thundr.rest.cache.ResponseCapture;
+import com.threewks.thundr.rest.RestException;
 import com.threewks.thundr.rest.RestView;
 import com.threewks.thundr.rest.RestViewResolver;
 import com.threewks.thundr.rest.dto.ErrorDto;
+import com.threewks.thundr.rest.exception.GatewayTimeoutException;
+import com.threewks.thundr.rest.exception.InternalServerErrorException;
+import com.threewks.thundr.rest.exception.ServiceUnavailableException;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class RestActionInterceptor implements ActionInterceptor<Rest> {
 
+	/**
+	 * Fraction of a cached response's time to live after which the next request refreshes it
+	 */
+	public static final double DefaultRefreshAheadFactor = 0.8;
+
+	/**
+	 * Milliseconds to wait for a {@link Future} output when the endpoint doesn't declare a {@link Rest#timeout()}
+	 */
+	public static final long DefaultTimeout = 30 * 1000;
+
+	/**
+	 * Request header in which a client can give the milliseconds it will wait for the response
+	 */
+	public static final String DefaultDeadlineHeader = "X-Request-Timeout";
+
 	RestViewResolver viewResolver;
+	private final ResponseCache responseCache;
+	private double refreshAheadFactor = DefaultRefreshAheadFactor;
+	private long timeout = DefaultTimeout;
+	private long concurrencyWait = 0;
+	private String deadlineHeader = DefaultDeadlineHeader;
+	private final ConcurrentMap<Class<? extends VersionProvider>, VersionProvider> versionProviders = new ConcurrentHashMap<>();
+	// Thundr's ActionInterceptor is given neither the action nor its Method, only the annotation instance the action
+	// read from its controller method when it was created, and passes that same instance on every request. Weak keys
+	// compare by identity, so each annotated controller method has its own limit even when another method declares
+	// an equal annotation, and the limit goes away with the action.
+	private final LoadingCache<Rest, Semaphore> concurrencyLimits = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Rest, Semaphore>() {
+				@Override
+				public Semaphore load(Rest annotation) {
+					return new Semaphore(annotation.maxConcurrency(), true);
+				}
+			});
 
 	public RestActionInterceptor(RestViewResolver viewResolver) {
+		this(viewResolver, null);
+	}
+
+	/**
+	 * @param responseCache where responses of endpoints declaring a {@link Rest#cacheTtl()} are kept, or null to
+	 *                      disable server side caching
+	 */
+	public RestActionInterceptor(RestViewResolver viewResolver, ResponseCache responseCache) {
 		this.viewResolver = viewResolver;
+		this.responseCache = responseCache;
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	public double getRefreshAheadFactor() {
+		return refreshAheadFactor;
+	}
+
+	/**
+	 * Sets the fraction of a cached response's time to live after which one request is let through to the controller
+	 * to refresh it, while other requests continue to be served the cached response. 1 disables refresh ahead.
+	 */
+	public void setRefreshAheadFactor(double refreshAheadFactor) {
+		this.refreshAheadFactor = refreshAheadFactor;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	/**
+	 * Sets how many milliseconds to wait for a {@link Future} output of an endpoint which doesn't declare a
+	 * {@link Rest#timeout()}.
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public long getConcurrencyWait() {
+		return concurrencyWait;
+	}
+
+	/**
+	 * Sets how many milliseconds a request to an endpoint at its {@link Rest#maxConcurrency()} waits for another
+	 * request to finish before it is rejected. 0, the default, rejects it immediately.
+	 */
+	public void setConcurrencyWait(long concurrencyWait) {
+		this.concurrencyWait = concurrencyWait;
+	}
+
+	public String getDeadlineHeader() {
+		return deadlineHeader;
+	}
+
+	/**
+	 * Sets the request header from which a client's deadline, in milliseconds, is read. Null ignores client deadlines.
+	 */
+	public void setDeadlineHeader(String deadlineHeader) {
+		this.deadlineHeader = deadlineHeader;
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T before(Rest annotation, HttpServletRequest req, HttpServletResponse res) {
+		if (annotation == null) {
+			return null;
+		}
+
+		// Negotiate up front so that unacceptable requests are rejected before the controller does any work. The
+		// NotAcceptableException is left to the container, as we have no acceptable format to describe it in.
+		RestContext context = viewResolver.negotiate(req);
+		applyDeadline(annotation, context, req);
+
+		RestView<?> view = checkVersion(annotation, req, res);
+		if (view == null) {
+			view = checkResponseCache(annotation, context, req, res);
+		}
+		if (view == null) {
+			view = acquirePermit(annotation, context, req, res);
+		}
+		return (T) view;
+	}
+
+	/**
+	 * Takes a permit of the endpoint's concurrency limit for the request, which the view resolver releases once the
+	 * response is written, or {@link #after} or {@link #exception} release when the response won't come from the view
+	 * resolver. Requests which can't get one are answered through {@link #exception}.
+	 */
+	private RestView<?> acquirePermit(Rest annotation, RestContext context, HttpServletRequest req, HttpServletResponse res) {
+		if (annotation.maxConcurrency() <= 0) {
+			return null;
+		}
+
+		Semaphore semaphore = concurrencyLimits.getUnchecked(annotation);
+		try {
+			if (semaphore.tryAcquire(concurrencyWait, TimeUnit.MILLISECONDS)) {
+				context.holdPermit(semaphore);
+				return null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return exception(annotation, new ServiceUnavailableException("Too many concurrent requests, at most %d are allowed", annotation.maxConcurrency()), req, res);
+	}
+
+	private void applyDeadline(Rest annotation, RestContext context, HttpServletRequest req) {
+		if (annotation.deadline() > 0) {
+			context.setTimeout(annotation.deadline() * 1000L);
+		}
+
+		String header = deadlineHeader == null ? null : req.getHeader(deadlineHeader);
+		if (header != null) {
+			try {
+				context.setTimeout(Long.parseLong(header.trim()));
+			} catch (NumberFormatException e) {
+				Logger.debug("Ignoring invalid %s header: %s", deadlineHeader, header);
+			}
+		}
+	}
+
+	private RestView<?> checkVersion(Rest annotation, HttpServletRequest req, HttpServletResponse res) {
+		if (annotation.version() == VersionProvider.None.class) {
+			return null;
+		}
+
+		String version = versionProvider(annotation.version()).version(req);
+		if (version == null) {
+			return null;
+		}
+
+		// Runs after negotiation, so the tag can be specific to the representation the request will get
+		String etag = viewResolver.versionETag(req, version);
+		req.setAttribute(ETags.RequestAttribute, etag);
+		if (ETags.isConditional(req) && ETags.matches(req.getHeader("If-None-Match"), etag)) {
+			// A 304 must carry the same caching headers as the full response would have
+			CachePolicy.apply(annotation, res);
+			return new RestView<Object>(null, HttpServletResponse.SC_NOT_MODIFIED);
+		}
+		return null;
+	}
+
+	private RestView<?> checkResponseCache(Rest annotation, RestContext context, HttpServletRequest req, HttpServletResponse res) {
+		if (responseCache == null || annotation.cacheTtl() <= 0 || !isGetOrHead(req)) {
+			return null;
+		}
+
+		String key = ResponseCapture.key(req, context.getContentType());
+		CachedResponse cached = responseCache.get(key);
+		if (cached != null) {
+			// A refresh which fails or isn't cacheable never replaces the entry, so its claim lapses with the response timeout
+			long now = System.currentTimeMillis();
+			if (!cached.isDueForRefresh(now, refreshAheadFactor) || !cached.claimRefresh(now, timeoutMillis(annotation))) {
+				CachePolicy.apply(annotation, res);
+				return new RestView<>(cached, HttpServletResponse.SC_OK, cached.getCharacterEncoding());
+			}
+			responseCache.getStats().recordRefresh();
+		}
+
+		// Let the controller run and have the view resolver store what it serializes
+		req.setAttribute(ResponseCapture.RequestAttribute, new ResponseCapture(responseCache, key, annotation.cacheTtl() * 1000L));
 		return null;
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T after(Rest annotation, Object view, HttpServletRequest req, HttpServletResponse resp) {
-		return null;
+		if (annotation == null) {
+			return null;
+		}
+
+		Object result = awaitOutput(annotation, view, req, resp);
+		if (isSuccessful(result)) {
+			CachePolicy.apply(annotation, resp);
+		}
+		if (!(result instanceof RestView)) {
+			// Another view resolver will write the response, so the permit won't be released by ours
+			releasePermit(req);
+		}
+		return result == view ? null : (T) result;
+	}
+
+	/**
+	 * Waits for a view whose output is a {@link Future}, such as one combining several backend calls made in
+	 * parallel, and replaces it with a view of the result. A result which is itself a {@link RestView} is used as is.
+	 * Timeouts and failures are answered through {@link #exception}, as if the controller had thrown them.
+	 */
+	private Object awaitOutput(Rest annotation, Object view, HttpServletRequest req, HttpServletResponse resp) {
+		if (!(view instanceof RestView) || !(((RestView<?>) view).getOutput() instanceof Future)) {
+			return view;
+		}
+
+		RestView<?> restView = (RestView<?>) view;
+		Future<?> future = (Future<?>) restView.getOutput();
+		long wait = timeoutMillis(annotation);
+		try {
+			Object result = future.get(wait, TimeUnit.MILLISECONDS);
+			return result instanceof RestView ? result : new RestView<>(result, restView.getStatus(), restView.getCharacterEncoding());
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			return exception(annotation, new GatewayTimeoutException(e, "Timed out after %dms waiting for the response", wait), req, resp);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			Exception failure = cause instanceof Exception ? (Exception) cause : new InternalServerErrorException(cause, "Internal server error: %s", cause.getMessage());
+			return exception(annotation, failure, req, resp);
+		} catch (CancellationException e) {
+			return exception(annotation, new InternalServerErrorException(e, "The response was cancelled"), req, resp);
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			return exception(annotation, new InternalServerErrorException(e, "Interrupted waiting for the response"), req, resp);
+		}
 	}
 
 	@Override
 	@SuppressWarnings("unchecked")
 	public <T> T exception(Rest annotation, Exception e, HttpServletRequest req, HttpServletResponse res) {
+		// The action failed, so the permit is done with whichever interceptor or resolver answers for it
+		releasePermit(req);
+
 		HttpStatusException statusException;
 		if (e instanceof  HttpStatusException) {
 			statusException = (HttpStatusException) e;
@@ -63,4 +321,41 @@ public class RestActionInterceptor implements ActionInterceptor<Rest> {
 
 		return (T) new RestView(new ErrorDto(e.getMessage()), statusException.getStatus());
 	}
+
+	private long timeoutMillis(Rest annotation) {
+		return annotation.timeout() > 0 ? annotation.timeout() * 1000L : timeout;
+	}
+
+	private static void releasePermit(HttpServletRequest req) {
+		RestContext context = RestContext.get(req);
+		if (context != null) {
+			context.releasePermit();
+		}
+	}
+
+	private static boolean isGetOrHead(HttpServletRequest req) {
+		return "GET".equalsIgnoreCase(req.getMethod()) || "HEAD".equalsIgnoreCase(req.getMethod());
+	}
+
+	private static boolean isSuccessful(Object view) {
+		if (view instanceof RestView) {
+			int status = ((RestView<?>) view).getStatus();
+			return status >= 200 && status < 300;
+		}
+		return true;
+	}
+
+	private VersionProvider versionProvider(Class<? extends VersionProvider> type) {
+		VersionProvider provider = versionProviders.get(type);
+		if (provider == null) {
+			try {
+				provider = type.newInstance();
+			} catch (InstantiationException | IllegalAccessException e) {
+				throw new RestException(e, "Failed to create version provider %s: %s", type.getName(), e.getMessage());
+			}
+			VersionProvider existing = versionProviders.putIfAbsent(type, provider);
+			provider = existing == null ? provider : existing;
+		}
+		return provider;
+	}
 }
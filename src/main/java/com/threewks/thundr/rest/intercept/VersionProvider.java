@@ -0,0 +1,46 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.intercept;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Supplies the current version of the resource a {@link Rest} endpoint serves, cheaply and without running the
+ * controller. Set with {@link Rest#version()}; the version becomes the response's ETag, and a request whose
+ * If-None-Match matches it is answered with a 304 before the controller is invoked.
+ * <p>
+ * Implementations need a public no argument constructor and must be thread safe, a single instance is shared by all
+ * requests.
+ */
+public interface VersionProvider {
+	/**
+	 * @return the current version of the requested resource, or null if it cannot be determined up front in which
+	 *         case the request is handled as normal
+	 */
+	String version(HttpServletRequest req);
+
+	/**
+	 * The default for {@link Rest#version()}, meaning no version is available.
+	 */
+	final class None implements VersionProvider {
+		@Override
+		public String version(HttpServletRequest req) {
+			return null;
+		}
+	}
+}
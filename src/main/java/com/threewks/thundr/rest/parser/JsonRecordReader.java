@@ -0,0 +1,270 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.parser;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterators;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.gson.GsonSerializer;
+import com.threewks.thundr.rest.serializer.json.NdjsonSerializer;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads a request body of many records incrementally, yielding one typed object at a time rather than buffering the
+ * whole body. Bodies are either newline delimited JSON, one document per line, or a single top level JSON array. At
+ * most one record is held in memory at a time, and the size of each record and the number of records are bounded,
+ * so heap usage does not grow with the size of the upload. Malformed bodies and bodies which exceed either limit
+ * result in a {@link BadRequestException}.
+ *
+ * <pre>
+ * try (JsonRecordReader&lt;Item&gt; items = JsonRecordReader.from(request, Item.class)) {
+ *     Iterator&lt;List&lt;Item&gt;&gt; batches = items.batches(500);
+ *     ...
+ * }
+ * </pre>
+ */
+public class JsonRecordReader<T> implements Iterator<T>, Closeable {
+	/**
+	 * Largest number of characters accepted for a single record
+	 */
+	public static final int DefaultMaxRecordSize = 1024 * 1024;
+	/**
+	 * Largest number of records accepted in a single body
+	 */
+	public static final int DefaultMaxRecords = 1000000;
+
+	// Characters JsonReader may read ahead of the record it is parsing, which are allowed for in the size limit
+	private static final int ReadAhead = 1024;
+	private static final Gson DefaultGson = new GsonSerializer().getGson();
+
+	private final LimitedReader input;
+	private final JsonReader reader;
+	private final TypeAdapter<T> adapter;
+	private final boolean array;
+	private int maxRecordSize = DefaultMaxRecordSize;
+	private int maxRecords = DefaultMaxRecords;
+	private int count = 0;
+	private boolean started = false;
+	private boolean finished = false;
+
+	/**
+	 * Creates a reader over the body of the given request, treating it as NDJSON when the request's content type is
+	 * {@value NdjsonSerializer#ContentType} and as a JSON array otherwise. The body is decoded using the request's
+	 * character encoding, or UTF-8 if none was given.
+	 */
+	public static <T> JsonRecordReader<T> from(HttpServletRequest request, Class<T> type) {
+		String encoding = StringUtils.defaultIfBlank(request.getCharacterEncoding(), Charsets.UTF_8.name());
+		try {
+			Reader body = new BufferedReader(new InputStreamReader(request.getInputStream(), encoding));
+			boolean ndjson = StringUtils.startsWithIgnoreCase(request.getContentType(), NdjsonSerializer.ContentType);
+			return ndjson ? ndjson(body, type) : array(body, type);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to read the request body: %s", e.getMessage());
+		}
+	}
+
+	/**
+	 * Creates a reader of newline delimited JSON, one document per line.
+	 */
+	public static <T> JsonRecordReader<T> ndjson(Reader body, Class<T> type) {
+		return new JsonRecordReader<>(body, DefaultGson.getAdapter(type), false);
+	}
+
+	/**
+	 * Creates a reader of the elements of a top level JSON array.
+	 */
+	public static <T> JsonRecordReader<T> array(Reader body, Class<T> type) {
+		return new JsonRecordReader<>(body, DefaultGson.getAdapter(type), true);
+	}
+
+	public JsonRecordReader(Reader body, TypeAdapter<T> adapter, boolean array) {
+		this.input = new LimitedReader(body);
+		this.reader = new JsonReader(input);
+		this.adapter = adapter;
+		this.array = array;
+		// Leniency is what lets JsonReader read many top level documents from one stream
+		this.reader.setLenient(!array);
+	}
+
+	public int getMaxRecordSize() {
+		return maxRecordSize;
+	}
+
+	/**
+	 * Sets the largest number of characters accepted for a single record. The limit is enforced to within the
+	 * parser's read ahead buffer of 1024 characters.
+	 */
+	public JsonRecordReader<T> setMaxRecordSize(int maxRecordSize) {
+		this.maxRecordSize = maxRecordSize;
+		return this;
+	}
+
+	public int getMaxRecords() {
+		return maxRecords;
+	}
+
+	public JsonRecordReader<T> setMaxRecords(int maxRecords) {
+		this.maxRecords = maxRecords;
+		return this;
+	}
+
+	/**
+	 * @return the number of records read so far
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return a view of the remaining records in lists of up to the given size, the last of which may be smaller.
+	 *         Only one batch is held in memory at a time.
+	 */
+	public Iterator<List<T>> batches(int size) {
+		return Iterators.partition(this, size);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (finished) {
+			return false;
+		}
+
+		try {
+			input.unlimited();
+			if (!started) {
+				started = true;
+				if (array) {
+					expect(JsonToken.BEGIN_ARRAY);
+					reader.beginArray();
+				}
+			}
+
+			boolean hasNext = array ? reader.hasNext() : reader.peek() != JsonToken.END_DOCUMENT;
+			if (!hasNext) {
+				if (array) {
+					reader.endArray();
+					expect(JsonToken.END_DOCUMENT);
+				}
+				finished = true;
+			}
+			if (hasNext && count >= maxRecords) {
+				throw new BadRequestException("The request body contains more than the maximum of %d records", maxRecords);
+			}
+			return hasNext;
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			throw failure(e);
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		try {
+			input.limit(maxRecordSize + ReadAhead);
+			T record = adapter.read(reader);
+			count++;
+			return record;
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			throw failure(e);
+		}
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void expect(JsonToken token) throws IOException {
+		JsonToken actual = reader.peek();
+		if (actual != token) {
+			throw new BadRequestException("Expected %s at record %d of the request body but found %s", token, count + 1, actual);
+		}
+	}
+
+	private RuntimeException failure(Exception e) {
+		if (e instanceof IOException && !(e instanceof MalformedJsonException || e instanceof EOFException)) {
+			return new RestException(e, "Failed to read the request body: %s", e.getMessage());
+		}
+		return new BadRequestException(e, "Malformed JSON at record %d of the request body: %s", count + 1, e.getMessage());
+	}
+
+	/**
+	 * Fails once more than the current limit of characters have been read, so a single oversized record cannot
+	 * exhaust the heap.
+	 */
+	private class LimitedReader extends FilterReader {
+		private long remaining = Long.MAX_VALUE;
+
+		LimitedReader(Reader in) {
+			super(in);
+		}
+
+		void limit(int limit) {
+			remaining = limit;
+		}
+
+		void unlimited() {
+			remaining = Long.MAX_VALUE;
+		}
+
+		@Override
+		public int read() throws IOException {
+			char[] c = new char[1];
+			return read(c, 0, 1) < 0 ? -1 : c[0];
+		}
+
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			if (remaining <= 0) {
+				throw new BadRequestException("Record %d of the request body is larger than the maximum of %d characters", count + 1, maxRecordSize);
+			}
+			int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.threewks.thundr.rest.RestException;
+import org.apache.commons.beanutils.PropertyUtils;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of introspecting a class once: its readable bean properties in serialization order and which of
+ * them are excluded with {@link Ignore}. Plans are immutable and cached per class, so serializers can walk an
+ * object graph without repeating reflection on every call.
+ */
+public class BeanPlan {
+	// Properties json-lib has always excluded from bean serialization
+	private static final Set<String> ExcludedProperties = ImmutableSet.of("class", "declaringClass", "metaClass");
+
+	private static final LoadingCache<Class<?>, BeanPlan> plans = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Class<?>, BeanPlan>() {
+				@Override
+				public BeanPlan load(Class<?> type) {
+					return new BeanPlan(type);
+				}
+			});
+
+	private final Class<?> type;
+	private final List<BeanProperty> properties;
+	private final Map<String, BeanProperty> allProperties;
+	private final Constructor<?> constructor;
+
+	public static BeanPlan forClass(Class<?> type) {
+		return plans.getUnchecked(type);
+	}
+
+	private BeanPlan(Class<?> type) {
+		this.type = type;
+
+		PropertyDescriptor[] descriptors = PropertyUtils.getPropertyDescriptors(type);
+		Arrays.sort(descriptors, new Comparator<PropertyDescriptor>() {
+			@Override
+			public int compare(PropertyDescriptor a, PropertyDescriptor b) {
+				return a.getName().compareTo(b.getName());
+			}
+		});
+
+		ImmutableList.Builder<BeanProperty> serializable = ImmutableList.builder();
+		ImmutableMap.Builder<String, BeanProperty> all = ImmutableMap.builder();
+		for (PropertyDescriptor descriptor : descriptors) {
+			Method readMethod = accessible(PropertyUtils.getReadMethod(descriptor));
+			if (readMethod == null || ExcludedProperties.contains(descriptor.getName())) {
+				continue;
+			}
+
+			boolean ignored = readMethod.isAnnotationPresent(Ignore.class);
+			Method writeMethod = accessible(PropertyUtils.getWriteMethod(descriptor));
+			BeanProperty property = new BeanProperty(descriptor.getName(), readMethod, writeMethod, ignored);
+			all.put(property.getName(), property);
+			if (!ignored) {
+				serializable.add(property);
+			}
+		}
+
+		this.properties = serializable.build();
+		this.allProperties = all.build();
+		this.constructor = defaultConstructor(type);
+	}
+
+	public Class<?> getType() {
+		return type;
+	}
+
+	/**
+	 * @return the readable properties which are not marked with {@link Ignore}, ordered by name
+	 */
+	public List<BeanProperty> getProperties() {
+		return properties;
+	}
+
+	public BeanProperty getProperty(String name) {
+		return allProperties.get(name);
+	}
+
+	/**
+	 * @return the named property if it is writable and not marked with {@link Ignore}, otherwise null
+	 */
+	public BeanProperty getWritableProperty(String name) {
+		BeanProperty property = allProperties.get(name);
+		return property != null && property.isWritable() && !property.isIgnored() ? property : null;
+	}
+
+	/**
+	 * Creates a new instance of the planned class using its no argument constructor.
+	 */
+	public Object newInstance() {
+		if (constructor == null) {
+			throw new RestException("Cannot create an instance of %s, it has no default constructor", type.getName());
+		}
+
+		try {
+			return constructor.newInstance();
+		} catch (InvocationTargetException e) {
+			throw new RestException(e.getCause(), "Failed to create an instance of %s: %s", type.getName(), e.getCause().getMessage());
+		} catch (Exception e) {
+			throw new RestException(e, "Failed to create an instance of %s: %s", type.getName(), e.getMessage());
+		}
+	}
+
+	public boolean isIgnored(String name) {
+		BeanProperty property = allProperties.get(name);
+		return property != null && property.isIgnored();
+	}
+
+	private static Constructor<?> defaultConstructor(Class<?> type) {
+		if (type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+			return null;
+		}
+
+		try {
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			if (!Modifier.isPublic(constructor.getModifiers()) || !Modifier.isPublic(type.getModifiers())) {
+				constructor.setAccessible(true);
+			}
+			return constructor;
+		} catch (NoSuchMethodException | SecurityException e) {
+			return null;
+		}
+	}
+
+	private static Method accessible(Method method) {
+		if (method != null && !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+			try {
+				method.setAccessible(true);
+			} catch (SecurityException e) {
+				// Leave it to invocation to report the property as unreadable
+			}
+		}
+		return method;
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.threewks.thundr.rest.RestException;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+
+public class BeanProperty {
+	private final String name;
+	private final Method readMethod;
+	private final Method writeMethod;
+	private final boolean ignored;
+
+	BeanProperty(String name, Method readMethod, Method writeMethod, boolean ignored) {
+		this.name = name;
+		this.readMethod = readMethod;
+		this.writeMethod = writeMethod;
+		this.ignored = ignored;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Class<?> getType() {
+		return readMethod.getReturnType();
+	}
+
+	public Type getGenericType() {
+		return readMethod.getGenericReturnType();
+	}
+
+	/**
+	 * @return the given annotation on the property's getter, or null if it is not present
+	 */
+	public <A extends Annotation> A getAnnotation(Class<A> annotationType) {
+		return readMethod.getAnnotation(annotationType);
+	}
+
+	public boolean isIgnored() {
+		return ignored;
+	}
+
+	public boolean isWritable() {
+		return writeMethod != null;
+	}
+
+	/**
+	 * @return the type accepted by the property's setter, which may be more specific than {@link #getGenericType()}
+	 */
+	public Type getWriteType() {
+		return writeMethod.getGenericParameterTypes()[0];
+	}
+
+	public Object get(Object bean) {
+		try {
+			return readMethod.invoke(bean);
+		} catch (IllegalAccessException e) {
+			throw new RestException(e, "Failed to read property %s of %s", name, bean.getClass().getName());
+		} catch (InvocationTargetException e) {
+			throw new RestException(e.getCause(), "Failed to read property %s of %s: %s", name, bean.getClass().getName(), e.getCause().getMessage());
+		}
+	}
+
+	public void set(Object bean, Object value) {
+		try {
+			writeMethod.invoke(bean, value);
+		} catch (IllegalAccessException e) {
+			throw new RestException(e, "Failed to set property %s of %s", name, bean.getClass().getName());
+		} catch (InvocationTargetException e) {
+			throw new RestException(e.getCause(), "Failed to set property %s of %s: %s", name, bean.getClass().getName(), e.getCause().getMessage());
+		}
+	}
+}
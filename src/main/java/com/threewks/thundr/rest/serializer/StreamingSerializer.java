@@ -0,0 +1,36 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * A {@link Serializer} which can write its output directly to a stream rather than building it up as a String
+ * first. The {@link com.threewks.thundr.rest.RestViewResolver} prefers this method when it is available.
+ */
+public interface StreamingSerializer extends Serializer {
+
+	/**
+	 * Writes the serialized form of the given object to the output stream encoded with the given charset. Implementations
+	 * must flush everything they have written before returning but must not close the stream.
+	 */
+	void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException;
+}
@@ -0,0 +1,90 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.csv;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * CSV specific view of a {@link BeanPlan}: the properties which become columns and the header row naming them,
+ * already escaped. Only properties with scalar types are columns, collections and nested beans are left out.
+ */
+class CsvPlan {
+	private static final LoadingCache<Class<?>, CsvPlan> plans = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Class<?>, CsvPlan>() {
+				@Override
+				public CsvPlan load(Class<?> type) throws Exception {
+					return new CsvPlan(BeanPlan.forClass(type));
+				}
+			});
+
+	final Class<?> type;
+	final BeanProperty[] columns;
+	final String header;
+
+	static CsvPlan forClass(Class<?> type) {
+		try {
+			return plans.getUnchecked(type);
+		} catch (UncheckedExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private CsvPlan(BeanPlan plan) throws IOException {
+		this.type = plan.getType();
+
+		List<BeanProperty> columns = new ArrayList<>();
+		for (BeanProperty property : plan.getProperties()) {
+			if (isScalar(property.getType())) {
+				columns.add(property);
+			}
+		}
+		this.columns = columns.toArray(new BeanProperty[columns.size()]);
+
+		StringWriter header = new StringWriter();
+		for (int i = 0; i < this.columns.length; i++) {
+			if (i > 0) {
+				header.write(',');
+			}
+			CsvSerializer.writeCell(header, this.columns[i].getName());
+		}
+		this.header = header.toString();
+	}
+
+	/**
+	 * @return true if values of the type are written as a single cell. Object is included, as the runtime value may be.
+	 */
+	static boolean isScalar(Class<?> type) {
+		return type.isPrimitive() || type == Object.class || CharSequence.class.isAssignableFrom(type) || Number.class.isAssignableFrom(type)
+				|| type == Boolean.class || type == Character.class || type.isEnum() || type == DateTime.class
+				|| Date.class.isAssignableFrom(type);
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.csv;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.Iterators;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.UnsupportedMediaTypeException;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import org.joda.time.DateTime;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes collections, arrays, iterables and iterators of flat DTOs as <a href="https://tools.ietf.org/html/rfc4180">CSV</a>
+ * for tabular exports. The header row comes from the first row's class, worked out once per class, and names its
+ * readable properties which are not {@code @Ignore}d and have scalar types. Maps are written with their first row's
+ * keys as the header. Rows are written and flushed one at a time, so memory use doesn't grow with the size of the
+ * export.
+ * <p>
+ * Nulls are empty cells, Joda DateTimes and Dates are ISO strings and enums are their names. An empty output writes
+ * nothing, not even a header, as there is no row to take one from.
+ * <p>
+ * Exports are usually opened in a spreadsheet, which runs any cell starting with {@code =}, {@code +}, {@code -} or
+ * {@code @} as a formula. Unless {@link #setFormulaEscaping(boolean)} turns it off, text cells and map headers starting
+ * with one of those, a tab or a carriage return are prefixed with {@code '} so they are shown as text. Numbers are
+ * written as they are.
+ */
+public class CsvSerializer implements StreamingSerializer {
+	public static final String ContentType = "text/csv";
+	public static final String Format = "csv";
+	public static final int DefaultFlushInterval = 100;
+
+	private static final String LineSeparator = "\r\n";
+	private static final CharMatcher QuotedCharacters = CharMatcher.anyOf(",\"\r\n");
+	private static final CharMatcher FormulaCharacters = CharMatcher.anyOf("=+-@\t\r");
+
+	private int flushInterval = DefaultFlushInterval;
+	private boolean formulaEscaping = true;
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Sets how many rows are written between flushes to the client. 0 leaves flushing to the response buffer.
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public boolean isFormulaEscaping() {
+		return formulaEscaping;
+	}
+
+	/**
+	 * Sets whether text cells which a spreadsheet would run as a formula are prefixed with {@code '}. On by default.
+	 */
+	public void setFormulaEscaping(boolean formulaEscaping) {
+		this.formulaEscaping = formulaEscaping;
+	}
+
+	@Override
+	public String marshal(Object object) {
+		return marshal(object, null);
+	}
+
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		StringWriter writer = new StringWriter();
+		try {
+			writeCsv(object, writer);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to CSV: %s", e.getMessage());
+		}
+		return writer.toString();
+	}
+
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+		writeCsv(object, writer);
+		writer.flush();
+	}
+
+	/**
+	 * CSV is only supported for responses, so a CSV request body is rejected as an unsupported media type.
+	 */
+	@Override
+	public <T> T unmarshal(Class<T> type, String csv) {
+		throw new UnsupportedMediaTypeException("%s request bodies are not supported, send %s as JSON instead", ContentType, type.getSimpleName());
+	}
+
+	protected void writeCsv(Object object, Writer writer) throws IOException {
+		CsvPlan plan = null;
+		List<Object> keys = null;
+		int count = 0;
+		Iterator<?> rows = rows(object);
+		while (rows.hasNext()) {
+			Cancellation.check();
+			Object row = rows.next();
+			if (row == null) {
+				continue;
+			}
+
+			if (row instanceof Map) {
+				Map<?, ?> map = (Map<?, ?>) row;
+				if (plan != null) {
+					throw new RestException("Cannot write a %s as a CSV row of %s", row.getClass().getName(), plan.type.getName());
+				}
+				if (keys == null) {
+					keys = new ArrayList<Object>(map.keySet());
+					writeHeader(writer, keys);
+				}
+				for (int i = 0; i < keys.size(); i++) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writeValue(writer, map.get(keys.get(i)));
+				}
+			} else {
+				if (keys != null || (plan != null && !plan.type.isInstance(row))) {
+					throw new RestException("Cannot write a %s as a CSV row of %s", row.getClass().getName(), keys != null ? "maps" : plan.type.getName());
+				}
+				if (plan == null) {
+					plan = planFor(row);
+					writer.write(plan.header);
+					writer.write(LineSeparator);
+				}
+				for (int i = 0; i < plan.columns.length; i++) {
+					if (i > 0) {
+						writer.write(',');
+					}
+					writeValue(writer, plan.columns[i].get(row));
+				}
+			}
+			writer.write(LineSeparator);
+
+			if (flushInterval > 0 && ++count % flushInterval == 0) {
+				writer.flush();
+			}
+		}
+	}
+
+	private void writeHeader(Writer writer, List<Object> keys) throws IOException {
+		for (int i = 0; i < keys.size(); i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			writeText(writer, String.valueOf(keys.get(i)));
+		}
+		writer.write(LineSeparator);
+	}
+
+	private void writeValue(Writer writer, Object value) throws IOException {
+		if (value == null) {
+			return;
+		}
+
+		if (value instanceof Date) {
+			writeCell(writer, new DateTime(((Date) value).getTime()).toString());
+		} else if (value instanceof Enum) {
+			writeCell(writer, ((Enum<?>) value).name());
+		} else if (value instanceof BigDecimal) {
+			writeCell(writer, ((BigDecimal) value).toPlainString());
+		} else if (value instanceof Number) {
+			writeCell(writer, value.toString());
+		} else {
+			writeText(writer, value.toString());
+		}
+	}
+
+	/**
+	 * Writes text which may come from a user as a cell, escaping it first if a spreadsheet would run it as a formula.
+	 */
+	private void writeText(Writer writer, String text) throws IOException {
+		if (formulaEscaping && !text.isEmpty() && FormulaCharacters.matches(text.charAt(0))) {
+			text = "'" + text;
+		}
+		writeCell(writer, text);
+	}
+
+	/**
+	 * Writes the text as a CSV cell, quoted if it contains a separator, quote or line break.
+	 */
+	static void writeCell(Writer writer, String text) throws IOException {
+		if (QuotedCharacters.matchesNoneOf(text)) {
+			writer.write(text);
+			return;
+		}
+
+		writer.write('"');
+		writer.write(text.replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	private static CsvPlan planFor(Object row) {
+		Class<?> type = row.getClass();
+		if (CsvPlan.isScalar(type) || type.isArray() || row instanceof Iterable) {
+			throw new RestException("Cannot serialize %s as CSV, only beans and maps can be written as rows", type.getName());
+		}
+		return CsvPlan.forClass(type);
+	}
+
+	private static Iterator<?> rows(Object object) {
+		if (object == null) {
+			return Collections.emptyIterator();
+		} else if (object instanceof Iterator) {
+			return (Iterator<?>) object;
+		} else if (object instanceof Iterable) {
+			return ((Iterable<?>) object).iterator();
+		} else if (object instanceof Object[]) {
+			return Iterators.forArray((Object[]) object);
+		}
+		return Iterators.singletonIterator(object);
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.gson;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import com.threewks.thundr.rest.serializer.json.JsonCodec;
+import com.threewks.thundr.rest.serializer.json.JsonCodecs;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binds application classes through their bean properties, as described by a {@link BeanPlan}, rather than
+ * through their fields as Gson does by default. This keeps {@link com.threewks.thundr.rest.serializer.Ignore}
+ * on getters meaningful and gives the same property set as the json-lib based serializer.
+ */
+class BeanTypeAdapterFactory implements TypeAdapterFactory {
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+		Class<?> rawType = type.getRawType();
+		return isBean(rawType) ? (TypeAdapter<T>) new BeanTypeAdapter<Object>(gson, BeanPlan.forClass(rawType)) : null;
+	}
+
+	static boolean isBean(Class<?> type) {
+		if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface()) {
+			return false;
+		}
+		if (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type)
+				|| DateTime.class.isAssignableFrom(type)) {
+			return false;
+		}
+
+		String name = type.getName();
+		// Joda types other than DateTime are beans to json-lib too
+		return !(name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("com.google."));
+	}
+
+	private static class BeanTypeAdapter<T> extends TypeAdapter<T> {
+		private final Gson gson;
+		private final BeanPlan plan;
+		private final BeanProperty[] properties;
+		private final TypeAdapter<Object>[] writeAdapters;
+		private final Map<String, TypeAdapter<Object>> readAdapters = Maps.newHashMap();
+
+		@SuppressWarnings("unchecked")
+		BeanTypeAdapter(Gson gson, BeanPlan plan) {
+			this.gson = gson;
+			this.plan = plan;
+
+			List<BeanProperty> serializable = plan.getProperties();
+			this.properties = serializable.toArray(new BeanProperty[serializable.size()]);
+			this.writeAdapters = new TypeAdapter[properties.length];
+			for (int i = 0; i < properties.length; i++) {
+				writeAdapters[i] = (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(properties[i].getGenericType()));
+				BeanProperty writable = plan.getWritableProperty(properties[i].getName());
+				if (writable != null) {
+					readAdapters.put(writable.getName(), (TypeAdapter<Object>) gson.getAdapter(TypeToken.get(writable.getWriteType())));
+				}
+			}
+		}
+
+		@Override
+		public void write(JsonWriter out, T value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+				return;
+			}
+
+			out.beginObject();
+			for (int i = 0; i < properties.length; i++) {
+				Object propertyValue = properties[i].get(value);
+				if (propertyValue != null) {
+					out.name(properties[i].getName());
+					adapterFor(i, propertyValue).write(out, propertyValue);
+				}
+			}
+			out.endObject();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T read(JsonReader in) throws IOException {
+			if (in.peek() == JsonToken.NULL) {
+				in.nextNull();
+				return null;
+			}
+
+			JsonCodec<Object> codec = JsonCodecs.forClass(plan.getType());
+			if (codec != null) {
+				return (T) codec.read(in);
+			}
+
+			T bean = (T) plan.newInstance();
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				TypeAdapter<Object> adapter = readAdapters.get(name);
+				if (adapter == null) {
+					in.skipValue();
+				} else {
+					plan.getProperty(name).set(bean, adapter.read(in));
+				}
+			}
+			in.endObject();
+			return bean;
+		}
+
+		/**
+		 * Properties declared as a plain class (e.g. Object or a base class) are written using the value's runtime
+		 * type, as Gson does for fields.
+		 */
+		@SuppressWarnings("unchecked")
+		private TypeAdapter<Object> adapterFor(int index, Object value) {
+			Type declared = properties[index].getGenericType();
+			if (declared instanceof Class && declared != value.getClass()) {
+				return (TypeAdapter<Object>) gson.getAdapter(value.getClass());
+			}
+			return writeAdapters[index];
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+
+/**
+ * Writes Joda {@link DateTime}s in the same ISO format as the json-lib based serializer and reads them back
+ * preserving their offset.
+ */
+class DateTimeTypeAdapter extends TypeAdapter<DateTime> {
+	private static final DateTimeFormatter DateTimeParser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	@Override
+	public void write(JsonWriter out, DateTime value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+		} else {
+			out.value(value.toString());
+		}
+	}
+
+	@Override
+	public DateTime read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return DateTimeParser.parseDateTime(in.nextString());
+	}
+}
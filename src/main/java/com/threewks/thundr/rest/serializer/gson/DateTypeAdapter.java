@@ -0,0 +1,89 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Writes {@link Date}s as objects of their bean properties, as the json-lib based serializer does, and reads that
+ * form back from its {@code time}, as well as epoch milliseconds (as {@link com.threewks.thundr.rest.parser.JsonParser}
+ * writes them) and ISO formatted strings.
+ */
+class DateTypeAdapter extends TypeAdapter<Date> {
+	private static final DateTimeFormatter DateTimeParser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+	private static final String TimeProperty = "time";
+
+	@Override
+	public void write(JsonWriter out, Date value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+			return;
+		}
+
+		// Every property of a Date is a number
+		out.beginObject();
+		for (BeanProperty property : BeanPlan.forClass(value.getClass()).getProperties()) {
+			Object propertyValue = property.get(value);
+			if (propertyValue != null) {
+				out.name(property.getName());
+				out.value((Number) propertyValue);
+			}
+		}
+		out.endObject();
+	}
+
+	@Override
+	public Date read(JsonReader in) throws IOException {
+		JsonToken token = in.peek();
+		if (token == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		if (token == JsonToken.NUMBER) {
+			return new Date(in.nextLong());
+		}
+		if (token == JsonToken.BEGIN_OBJECT) {
+			return readObject(in);
+		}
+		return DateTimeParser.parseDateTime(in.nextString()).toDate();
+	}
+
+	private static Date readObject(JsonReader in) throws IOException {
+		Date date = null;
+		in.beginObject();
+		while (in.hasNext()) {
+			if (TimeProperty.equals(in.nextName()) && in.peek() != JsonToken.NULL) {
+				date = new Date(in.nextLong());
+			} else {
+				in.skipValue();
+			}
+		}
+		in.endObject();
+		return date;
+	}
+}
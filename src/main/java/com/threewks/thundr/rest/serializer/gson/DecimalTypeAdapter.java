@@ -0,0 +1,77 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.gson;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Writes floating point numbers as json-lib does, dropping trailing zeros from the fraction so that whole values
+ * are written as integers ({@code 1} rather than {@code 1.0}). Numbers in exponent form are written unchanged.
+ */
+abstract class DecimalTypeAdapter<T extends Number> extends TypeAdapter<T> {
+	static final DecimalTypeAdapter<Double> Doubles = new DecimalTypeAdapter<Double>() {
+		@Override
+		protected Double readNumber(JsonReader in) throws IOException {
+			return in.nextDouble();
+		}
+	};
+
+	static final DecimalTypeAdapter<Float> Floats = new DecimalTypeAdapter<Float>() {
+		@Override
+		protected Float readNumber(JsonReader in) throws IOException {
+			return (float) in.nextDouble();
+		}
+	};
+
+	@Override
+	public void write(JsonWriter out, T value) throws IOException {
+		if (value == null) {
+			out.nullValue();
+			return;
+		}
+
+		String text = value.toString();
+		if (text.indexOf('.') > 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+			int end = text.length();
+			while (text.charAt(end - 1) == '0') {
+				end--;
+			}
+			if (text.charAt(end - 1) == '.') {
+				out.value(Long.parseLong(text.substring(0, end - 1)));
+				return;
+			}
+		}
+		out.value(value);
+	}
+
+	@Override
+	public T read(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return readNumber(in);
+	}
+
+	protected abstract T readNumber(JsonReader in) throws IOException;
+}
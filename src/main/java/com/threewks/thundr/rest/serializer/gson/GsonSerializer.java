@@ -0,0 +1,174 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import com.threewks.thundr.rest.serializer.json.JsonEncoder;
+import com.threewks.thundr.rest.serializer.json.JsonSerializer;
+import org.joda.time.DateTime;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A JSON serializer built on Gson's streaming {@link JsonWriter} and {@link com.google.gson.stream.JsonReader}.
+ * It produces the same documents as the json-lib based {@link JsonSerializer}: properties are discovered through
+ * getters, {@link com.threewks.thundr.rest.serializer.Ignore}d and null properties are skipped, Joda DateTimes are
+ * written as ISO strings, other Joda types and {@link Date}s as objects of their bean properties, whole floating
+ * point numbers without a fraction and the {@code callback} option wraps the output for JSONP. Unlike json-lib no intermediate
+ * tree is built, output is written as the object graph is walked.
+ */
+public class GsonSerializer implements StreamingSerializer {
+	public static final String OPTION_CALLBACK = JsonSerializer.OPTION_CALLBACK;
+
+	private final Gson gson;
+	private int flushInterval = JsonEncoder.DefaultFlushInterval;
+
+	public GsonSerializer() {
+		this(new GsonBuilder());
+	}
+
+	/**
+	 * Creates a serializer from the given builder, allowing additional type adapters to be registered. The thundr
+	 * DateTime, Date, floating point number and bean property adapters are added to the builder.
+	 */
+	public GsonSerializer(GsonBuilder builder) {
+		this.gson = builder
+				.registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
+				.registerTypeAdapter(Date.class, new DateTypeAdapter())
+				.registerTypeAdapter(Double.class, DecimalTypeAdapter.Doubles)
+				.registerTypeAdapter(double.class, DecimalTypeAdapter.Doubles)
+				.registerTypeAdapter(Float.class, DecimalTypeAdapter.Floats)
+				.registerTypeAdapter(float.class, DecimalTypeAdapter.Floats)
+				.registerTypeAdapterFactory(new BeanTypeAdapterFactory())
+				.disableHtmlEscaping()
+				.create();
+	}
+
+	public Gson getGson() {
+		return gson;
+	}
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Sets how many elements of a top level iterator or iterable output are written between flushes to the client.
+	 * 0 leaves flushing to the response buffer.
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	@Override
+	public String marshal(Object object) {
+		return marshal(object, null);
+	}
+
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		StringWriter writer = new StringWriter();
+		try {
+			writeJson(object, options, writer);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to JSON: %s", e.getMessage());
+		}
+		return writer.toString();
+	}
+
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+		writeJson(object, options, writer);
+		writer.flush();
+	}
+
+	@Override
+	public <T> T unmarshal(Class<T> type, String json) {
+		return gson.fromJson(json, type);
+	}
+
+	protected void writeJson(Object object, Map<String, String> options, Writer writer) throws IOException {
+		// If callback option is present wrap response in function call ala JSONP
+		String callback = options == null ? null : options.get(OPTION_CALLBACK);
+		if (callback != null) {
+			writer.write(callback);
+			writer.write('(');
+		}
+
+		JsonWriter jsonWriter = new JsonWriter(writer);
+		jsonWriter.setLenient(true);
+		jsonWriter.setSerializeNulls(false);
+		// JSONP is evaluated as script so escape anything that could close a script tag
+		jsonWriter.setHtmlSafe(callback != null);
+		if (object instanceof Iterator) {
+			writeElements(jsonWriter, (Iterator<?>) object);
+		} else if (object instanceof Iterable && !(object instanceof Collection)) {
+			writeElements(jsonWriter, ((Iterable<?>) object).iterator());
+		} else {
+			writeValue(jsonWriter, object);
+		}
+		jsonWriter.flush();
+
+		if (callback != null) {
+			writer.write(");");
+		}
+	}
+
+	/**
+	 * Writes a lazy source as an array one element at a time, which Gson has no adapter for.
+	 */
+	private void writeElements(JsonWriter jsonWriter, Iterator<?> iterator) throws IOException {
+		jsonWriter.beginArray();
+		int count = 0;
+		while (iterator.hasNext()) {
+			Cancellation.check();
+			writeValue(jsonWriter, iterator.next());
+			if (flushInterval > 0 && ++count % flushInterval == 0) {
+				jsonWriter.flush();
+			}
+		}
+		jsonWriter.endArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeValue(JsonWriter jsonWriter, Object object) throws IOException {
+		if (object == null) {
+			jsonWriter.nullValue();
+		} else {
+			TypeAdapter<Object> adapter = (TypeAdapter<Object>) gson.getAdapter(object.getClass());
+			adapter.write(jsonWriter, object);
+		}
+	}
+}
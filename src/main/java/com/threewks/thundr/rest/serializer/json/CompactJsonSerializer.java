@@ -0,0 +1,310 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.PeekingIterator;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import com.threewks.thundr.rest.serializer.gson.GsonSerializer;
+import net.sf.json.JSON;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes collections of beans as compact, columnar JSON: the property names once, followed by the values of each
+ * element, rather than repeating every name in every element. By default each element is an array of values:
+ *
+ * <pre>
+ * {"fields":["id","name"],"rows":[[1,"one"],[2,"two"]]}
+ * </pre>
+ *
+ * or, with the option {@code layout=columns}, each property is an array of values:
+ *
+ * <pre>
+ * {"fields":["id","name"],"columns":[[1,2],["one","two"]]}
+ * </pre>
+ *
+ * The fields are those of the first element's class, as the JSON serializers would write them, so collections must be
+ * homogeneous: every element must be an instance of that class, and an element of a sibling class is rejected with a
+ * {@link RestException} rather than written with the fields of a common superclass. Rows are streamed, so the
+ * exception is only thrown once that element is reached, after the rows before it have been written and possibly
+ * sent to the client with the response status, leaving it a truncated body. The columns layout checks every element
+ * before writing anything. Null elements are left out, null values are written as null. Any other output, including
+ * collections of scalars or maps, is written as plain JSON.
+ * <p>
+ * {@link #unmarshal(Class, String)} reads either layout back when given an array type, and plain JSON otherwise. Values
+ * are read with the same conventions they are written with, so a {@link java.util.Date} property survives the round
+ * trip.
+ */
+public class CompactJsonSerializer extends JsonSerializer {
+	public static final String ContentType = "application/vnd.thundr.compact+json";
+	public static final String Format = "compact";
+	/**
+	 * Option selecting {@link #LayoutRows}, the default, or {@link #LayoutColumns}
+	 */
+	public static final String OPTION_LAYOUT = "layout";
+	/**
+	 * Writes each element as an array of values, streaming an {@link Iterator} or {@link Iterable} output an element at
+	 * a time
+	 */
+	public static final String LayoutRows = "rows";
+	/**
+	 * Writes each property as an array of values. Transposing needs every element at once, so the whole output is
+	 * first copied into memory, including a lazy {@link Iterator} output which the rows layout would stream in
+	 * constant memory.
+	 */
+	public static final String LayoutColumns = "columns";
+
+	private static final String Fields = "fields";
+	// Values are written by JsonEncoder with json-lib's conventions, which GsonSerializer's adapters read back: Dates as
+	// objects with a time property, Joda DateTimes as ISO strings and whole doubles without a fraction
+	private static final Gson ValueReader = new GsonSerializer().getGson();
+
+	@Override
+	protected void writeDocument(Object object, Map<String, String> options, Writer writer) throws IOException {
+		Iterator<?> elements = elements(object);
+		if (elements == null) {
+			super.writeDocument(object, options, writer);
+			return;
+		}
+
+		PeekingIterator<?> rows = Iterators.peekingIterator(Iterators.filter(elements, Predicates.notNull()));
+		Class<?> type = rows.hasNext() ? rows.peek().getClass() : null;
+		if (type != null && !isBean(type)) {
+			super.writeDocument(rows, options, writer);
+			return;
+		}
+
+		// Columns are checked before anything is written, rows as they are streamed
+		boolean columns = options != null && LayoutColumns.equals(options.get(OPTION_LAYOUT));
+		List<?> buffered = columns ? checkTypes(type, Lists.newArrayList(rows)) : null;
+
+		BeanProperty[] properties = type == null ? new BeanProperty[0] : JsonPlan.forClass(type).properties;
+		writer.write("{\"" + Fields + "\":[");
+		for (int i = 0; i < properties.length; i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			JsonEncoder.writeString(writer, properties[i].getName());
+		}
+
+		writer.write("],\"");
+		writer.write(columns ? LayoutColumns : LayoutRows);
+		writer.write("\":[");
+		if (columns) {
+			writeColumns(properties, buffered, writer);
+		} else {
+			writeRows(type, properties, rows, writer);
+		}
+		writer.write("]}");
+	}
+
+	private void writeRows(Class<?> type, BeanProperty[] properties, Iterator<?> rows, Writer writer) throws IOException {
+		JsonEncoder encoder = new JsonEncoder(writer);
+		int count = 0;
+		while (rows.hasNext()) {
+			Cancellation.check();
+			Object row = checkType(type, rows.next());
+			if (count++ > 0) {
+				writer.write(',');
+			}
+			writer.write('[');
+			for (int i = 0; i < properties.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				encoder.write(properties[i].get(row));
+			}
+			writer.write(']');
+			if (getFlushInterval() > 0 && count % getFlushInterval() == 0) {
+				writer.flush();
+			}
+		}
+	}
+
+	private void writeColumns(BeanProperty[] properties, List<?> rows, Writer writer) throws IOException {
+		JsonEncoder encoder = new JsonEncoder(writer);
+		for (int i = 0; i < properties.length; i++) {
+			Cancellation.check();
+			if (i > 0) {
+				writer.write(',');
+			}
+			writer.write('[');
+			for (int j = 0; j < rows.size(); j++) {
+				if (j > 0) {
+					writer.write(',');
+				}
+				encoder.write(properties[i].get(rows.get(j)));
+			}
+			writer.write(']');
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unmarshal(Class<T> type, String json) {
+		if (!type.isArray() || type.getComponentType().isPrimitive()) {
+			return super.unmarshal(type, json);
+		}
+
+		List<?> elements = unmarshalList(type.getComponentType(), new StringReader(json));
+		return (T) elements.toArray((Object[]) Array.newInstance(type.getComponentType(), elements.size()));
+	}
+
+	/**
+	 * Reads compact JSON in either layout into a list of the given type. Fields the type has no writable property for
+	 * are skipped.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> unmarshalList(Class<T> type, Reader reader) {
+		BeanPlan plan = BeanPlan.forClass(type);
+		JsonReader json = new JsonReader(reader);
+		try {
+			List<BeanProperty> fields = null;
+			List<Object> elements = new ArrayList<>();
+			json.beginObject();
+			while (json.hasNext()) {
+				String name = json.nextName();
+				if (Fields.equals(name)) {
+					fields = readFields(plan, json);
+				} else if ((LayoutRows.equals(name) || LayoutColumns.equals(name)) && fields == null) {
+					throw new BadRequestException("Expected %s before %s in compact JSON", Fields, name);
+				} else if (LayoutRows.equals(name)) {
+					readRows(plan, fields, json, elements);
+				} else if (LayoutColumns.equals(name)) {
+					readColumns(plan, fields, json, elements);
+				} else {
+					json.skipValue();
+				}
+			}
+			json.endObject();
+			return (List<T>) elements;
+		} catch (IOException | JsonParseException | IllegalStateException e) {
+			throw new BadRequestException(e, "Failed to read compact JSON as %s: %s", type.getName(), e.getMessage());
+		}
+	}
+
+	private static List<BeanProperty> readFields(BeanPlan plan, JsonReader json) throws IOException {
+		List<BeanProperty> fields = new ArrayList<>();
+		json.beginArray();
+		while (json.hasNext()) {
+			fields.add(plan.getWritableProperty(json.nextString()));
+		}
+		json.endArray();
+		return fields;
+	}
+
+	private static void readRows(BeanPlan plan, List<BeanProperty> fields, JsonReader json, List<Object> elements) throws IOException {
+		json.beginArray();
+		while (json.hasNext()) {
+			Object bean = plan.newInstance();
+			json.beginArray();
+			for (int i = 0; json.hasNext(); i++) {
+				readValue(i < fields.size() ? fields.get(i) : null, bean, json);
+			}
+			json.endArray();
+			elements.add(bean);
+		}
+		json.endArray();
+	}
+
+	private static void readColumns(BeanPlan plan, List<BeanProperty> fields, JsonReader json, List<Object> elements) throws IOException {
+		json.beginArray();
+		for (int i = 0; json.hasNext(); i++) {
+			BeanProperty field = i < fields.size() ? fields.get(i) : null;
+			json.beginArray();
+			for (int j = 0; json.hasNext(); j++) {
+				if (j == elements.size()) {
+					elements.add(plan.newInstance());
+				}
+				readValue(field, elements.get(j), json);
+			}
+			json.endArray();
+		}
+		json.endArray();
+	}
+
+	/**
+	 * Sets the next value on the bean, skipping it if the field isn't writable. Nulls leave the property's default.
+	 */
+	private static void readValue(BeanProperty field, Object bean, JsonReader json) throws IOException {
+		if (field == null) {
+			json.skipValue();
+		} else if (json.peek() == JsonToken.NULL) {
+			json.nextNull();
+		} else {
+			TypeAdapter<?> adapter = ValueReader.getAdapter(TypeToken.get(field.getWriteType()));
+			field.set(bean, adapter.read(json));
+		}
+	}
+
+	private static Object checkType(Class<?> type, Object row) {
+		if (!type.isInstance(row)) {
+			throw new RestException("Cannot write a %s as compact JSON with the fields of %s", row.getClass().getName(), type.getName());
+		}
+		return row;
+	}
+
+	private static List<?> checkTypes(Class<?> type, List<?> rows) {
+		for (Object row : rows) {
+			checkType(type, row);
+		}
+		return rows;
+	}
+
+	/**
+	 * @return true if values of the type are written as JSON objects from their bean properties
+	 */
+	private static boolean isBean(Class<?> type) {
+		return !(type.isPrimitive() || type.isArray() || type.isEnum() || type == String.class || type == Character.class || type == Boolean.class
+				|| type == DateTime.class || Number.class.isAssignableFrom(type) || JSON.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)
+				|| Iterable.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type));
+	}
+
+	private static Iterator<?> elements(Object object) {
+		if (object instanceof Iterator) {
+			return (Iterator<?>) object;
+		} else if (object instanceof Iterable) {
+			return ((Iterable<?>) object).iterator();
+		} else if (object instanceof Object[]) {
+			return Iterators.forArray((Object[]) object);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Reads and writes a single class without reflection. Implementations are generated at compile time for classes
+ * marked with {@link com.threewks.thundr.rest.serializer.Precompiled} and located through {@link JsonCodecs}.
+ */
+public interface JsonCodec<T> {
+
+	/**
+	 * @return the XML root element name for the class, as given by its XmlRootElement annotation or its class name
+	 */
+	String rootElementName();
+
+	/**
+	 * Writes the given value as a JSON object, delegating nested values to the encoder.
+	 */
+	void write(T value, JsonEncoder encoder, Writer out) throws IOException;
+
+	T read(JsonReader in) throws IOException;
+}
@@ -0,0 +1,108 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.threewks.thundr.logger.Logger;
+import com.threewks.thundr.rest.serializer.Precompiled;
+import com.threewks.thundr.rest.serializer.gson.GsonSerializer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Locates the {@link JsonCodec}s generated for {@link Precompiled} classes. Lookups are cached per class, including
+ * the absence of a codec, so classes without one fall back to reflective serialization at no extra cost.
+ */
+public class JsonCodecs {
+	public static final String CodecSuffix = "_JsonCodec";
+
+	private static final Gson gson = new GsonSerializer().getGson();
+
+	private static final LoadingCache<Class<?>, Optional<JsonCodec<Object>>> codecs = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Class<?>, Optional<JsonCodec<Object>>>() {
+				@Override
+				public Optional<JsonCodec<Object>> load(Class<?> type) {
+					return Optional.fromNullable(loadCodec(type));
+				}
+			});
+
+	/**
+	 * @return the generated codec for the given class, or null if it has none
+	 */
+	public static JsonCodec<Object> forClass(Class<?> type) {
+		return codecs.getUnchecked(type).orNull();
+	}
+
+	/**
+	 * The name of the codec generated for the given class binary name, e.g. com.foo.Outer_Inner_JsonCodec for com.foo.Outer$Inner.
+	 */
+	public static String codecName(String packageName, String binaryName) {
+		String name = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+		String prefix = packageName.isEmpty() ? "" : packageName + ".";
+		return prefix + name.replace('$', '_') + CodecSuffix;
+	}
+
+	/**
+	 * Reads a string value from generated codecs, allowing for nulls.
+	 */
+	public static String readString(JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	/**
+	 * Reads a value of any other type from generated codecs, using a generated codec where there is one.
+	 */
+	public static Object read(JsonReader in, Type type) throws IOException {
+		if (type instanceof Class) {
+			JsonCodec<Object> codec = forClass((Class<?>) type);
+			if (codec != null) {
+				return codec.read(in);
+			}
+		}
+		return gson.fromJson(in, type);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JsonCodec<Object> loadCodec(Class<?> type) {
+		if (!type.isAnnotationPresent(Precompiled.class)) {
+			return null;
+		}
+
+		String packageName = type.getPackage() == null ? "" : type.getPackage().getName();
+		String codecName = codecName(packageName, type.getName());
+		try {
+			return (JsonCodec<Object>) Class.forName(codecName, true, type.getClassLoader()).newInstance();
+		} catch (Exception e) {
+			Logger.warn("%s is marked @%s but its generated codec %s could not be loaded, falling back to reflection: %s",
+					type.getName(), Precompiled.class.getSimpleName(), codecName, e.getMessage());
+			return null;
+		}
+	}
+}
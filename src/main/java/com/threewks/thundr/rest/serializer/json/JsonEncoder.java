@@ -0,0 +1,279 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.collect.Sets;
+import com.threewks.thundr.rest.Cancellation;
+import net.sf.json.JSON;
+import net.sf.json.JSONException;
+import net.sf.json.JsonConfig;
+import net.sf.json.processors.JsonValueProcessor;
+import net.sf.json.util.JSONUtils;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes an object graph as JSON directly to a {@link Writer}, driven by generated {@link JsonCodec}s or cached
+ * {@link JsonPlan}s rather than per call reflection. Output matches what json-lib produced for the same graph:
+ * properties with {@code @Ignore} or null values are skipped, Joda {@link DateTime}s are written as ISO strings and
+ * cycles are rejected. Instances of {@link com.threewks.thundr.rest.serializer.Cacheable} classes are serialized once
+ * and their JSON reused. Iterators and iterables are consumed lazily, one element at a time, stopping early if the
+ * response is cancelled.
+ */
+public class JsonEncoder {
+	/**
+	 * Number of elements of a top level iterator or iterable written between flushes of the output
+	 */
+	public static final int DefaultFlushInterval = 100;
+
+	private static final JsonConfig Config = new JsonConfig();
+	private static final char[] Hex = "0123456789abcdef".toCharArray();
+
+	private final Writer out;
+	private final Set<Object> path;
+	private int flushInterval = 0;
+
+	public JsonEncoder(Writer out) {
+		this(out, Sets.newIdentityHashSet());
+	}
+
+	private JsonEncoder(Writer out, Set<Object> path) {
+		this.out = out;
+		this.path = path;
+	}
+
+	/**
+	 * Flushes the output every given number of elements while writing a top level iterator or iterable, so that a
+	 * client sees a long array arrive progressively. 0, the default, never flushes.
+	 */
+	public JsonEncoder setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+		return this;
+	}
+
+	public void write(Object value) throws IOException {
+		if (value == null) {
+			out.write("null");
+		} else if (value instanceof String) {
+			writeString(out, (String) value);
+		} else if (value instanceof Number) {
+			out.write(JSONUtils.numberToString((Number) value));
+		} else if (value instanceof Boolean) {
+			out.write(value.toString());
+		} else if (value instanceof Character || value instanceof DateTime) {
+			writeString(out, value.toString());
+		} else if (value instanceof Enum) {
+			writeString(out, ((Enum<?>) value).name());
+		} else if (value instanceof JSON) {
+			out.write(value.toString());
+		} else if (value instanceof Map) {
+			writeMap((Map<?, ?>) value);
+		} else if (value instanceof Iterable) {
+			writeIterator(value, ((Iterable<?>) value).iterator());
+		} else if (value instanceof Iterator) {
+			writeIterator(value, (Iterator<?>) value);
+		} else if (value.getClass().isArray()) {
+			writeArray(value);
+		} else {
+			writeBean(value);
+		}
+	}
+
+	protected void writeBean(Object bean) throws IOException {
+		JsonPlan plan = JsonPlan.forClass(bean.getClass());
+		if (plan.cacheable) {
+			writeCacheableBean(bean, plan);
+		} else {
+			writeBean(bean, plan);
+		}
+	}
+
+	/**
+	 * Splices in the instance's cached JSON, serializing and caching it first if this instance (at its current version)
+	 * has not been seen before. The fragment is written with the same cycle detection path as the rest of the output.
+	 */
+	private void writeCacheableBean(Object bean, JsonPlan plan) throws IOException {
+		Object version = plan.version == null ? null : plan.version.get(bean);
+		String fragment = JsonFragments.get(bean, version);
+		if (fragment == null) {
+			StringWriter writer = new StringWriter();
+			new JsonEncoder(writer, path).writeBean(bean, plan);
+			fragment = writer.toString();
+			JsonFragments.put(bean, version, fragment);
+		}
+		out.write(fragment);
+	}
+
+	private void writeBean(Object bean, JsonPlan plan) throws IOException {
+		enter(bean);
+		JsonCodec<Object> codec = JsonCodecs.forClass(bean.getClass());
+		if (codec != null) {
+			codec.write(bean, this, out);
+			exit(bean);
+			return;
+		}
+
+		out.write('{');
+		boolean first = true;
+		for (int i = 0; i < plan.properties.length; i++) {
+			Object value = plan.properties[i].get(bean);
+			if (value == null) {
+				continue;
+			}
+
+			JsonValueProcessor processor = plan.processors[i];
+			if (processor != null) {
+				value = processor.processObjectValue(plan.properties[i].getName(), value, Config);
+			}
+
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			out.write(plan.names[i]);
+			write(value);
+		}
+		out.write('}');
+		exit(bean);
+	}
+
+	protected void writeMap(Map<?, ?> map) throws IOException {
+		enter(map);
+		out.write('{');
+		boolean first = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getValue() == null) {
+				continue;
+			}
+
+			if (!first) {
+				out.write(',');
+			}
+			first = false;
+			writeString(out, String.valueOf(entry.getKey()));
+			out.write(':');
+			write(entry.getValue());
+		}
+		out.write('}');
+		exit(map);
+	}
+
+	protected void writeIterator(Object source, Iterator<?> iterator) throws IOException {
+		enter(source);
+		boolean flush = flushInterval > 0 && path.size() == 1;
+		out.write('[');
+		int count = 0;
+		while (iterator.hasNext()) {
+			Cancellation.check();
+			if (count++ > 0) {
+				out.write(',');
+			}
+			write(iterator.next());
+			if (flush && count % flushInterval == 0) {
+				out.flush();
+			}
+		}
+		out.write(']');
+		exit(source);
+	}
+
+	protected void writeArray(Object array) throws IOException {
+		enter(array);
+		out.write('[');
+		int length = Array.getLength(array);
+		for (int i = 0; i < length; i++) {
+			Cancellation.check();
+			if (i > 0) {
+				out.write(',');
+			}
+			write(Array.get(array, i));
+		}
+		out.write(']');
+		exit(array);
+	}
+
+	private void enter(Object container) {
+		if (!path.add(container)) {
+			throw new JSONException("There is a cycle in the hierarchy!");
+		}
+	}
+
+	private void exit(Object container) {
+		path.remove(container);
+	}
+
+	/**
+	 * Writes the given string as a quoted JSON string, escaped the same way as json-lib's {@code JSONUtils.quote}.
+	 */
+	public static void writeString(Writer out, String string) throws IOException {
+		out.write('"');
+		int length = string.length();
+		int start = 0;
+		char previous = 0;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			String escape = null;
+			switch (c) {
+				case '"':
+					escape = "\\\"";
+					break;
+				case '\\':
+					escape = "\\\\";
+					break;
+				case '/':
+					escape = previous == '<' ? "\\/" : null;
+					break;
+				case '\b':
+					escape = "\\b";
+					break;
+				case '\t':
+					escape = "\\t";
+					break;
+				case '\n':
+					escape = "\\n";
+					break;
+				case '\f':
+					escape = "\\f";
+					break;
+				case '\r':
+					escape = "\\r";
+					break;
+				default:
+					if (c < ' ') {
+						escape = new String(new char[] { '\\', 'u', '0', '0', Hex[c >> 4], Hex[c & 0xF] });
+					}
+			}
+			previous = c;
+
+			if (escape != null) {
+				out.write(string, start, i - start);
+				out.write(escape);
+				start = i + 1;
+			}
+		}
+		out.write(string, start, length - start);
+		out.write('"');
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Serialized JSON of {@link com.threewks.thundr.rest.serializer.Cacheable} instances. Entries are held against the
+ * instance itself, compared by identity and weakly referenced, so they go when the instance does.
+ */
+class JsonFragments {
+	static final int MaximumSize = 10000;
+
+	private static final Cache<Object, Fragment> fragments = CacheBuilder.newBuilder()
+			.weakKeys()
+			.maximumSize(MaximumSize)
+			.build();
+
+	/**
+	 * @return the cached JSON for the instance at the given version, or null if there is none
+	 */
+	static String get(Object instance, Object version) {
+		Fragment fragment = fragments.getIfPresent(instance);
+		return fragment != null && Objects.equal(fragment.version, version) ? fragment.json : null;
+	}
+
+	static void put(Object instance, Object version, String json) {
+		fragments.put(instance, new Fragment(version, json));
+	}
+
+	static long size() {
+		return fragments.size();
+	}
+
+	private static class Fragment {
+		private final Object version;
+		private final String json;
+
+		private Fragment(Object version, String json) {
+			this.version = version;
+			this.json = json;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import com.threewks.thundr.rest.serializer.Cacheable;
+import net.sf.json.processors.JsonValueProcessor;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+/**
+ * JSON specific view of a {@link BeanPlan}: property names already quoted and escaped as they appear in the
+ * output, along with the value processor that applies to each property and whether the class's serialized form can
+ * be cached.
+ */
+class JsonPlan {
+	private static final DateTimeValueProcessor DateTimeProcessor = new DateTimeValueProcessor();
+
+	private static final LoadingCache<Class<?>, JsonPlan> plans = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Class<?>, JsonPlan>() {
+				@Override
+				public JsonPlan load(Class<?> type) throws Exception {
+					return new JsonPlan(BeanPlan.forClass(type));
+				}
+			});
+
+	final BeanProperty[] properties;
+	final String[] names;
+	final JsonValueProcessor[] processors;
+	final boolean cacheable;
+	final BeanProperty version;
+
+	static JsonPlan forClass(Class<?> type) {
+		try {
+			return plans.getUnchecked(type);
+		} catch (UncheckedExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private JsonPlan(BeanPlan plan) throws IOException {
+		List<BeanProperty> beanProperties = plan.getProperties();
+		int count = beanProperties.size();
+		this.properties = beanProperties.toArray(new BeanProperty[count]);
+		this.names = new String[count];
+		this.processors = new JsonValueProcessor[count];
+
+		for (int i = 0; i < count; i++) {
+			StringWriter name = new StringWriter();
+			JsonEncoder.writeString(name, properties[i].getName());
+			name.write(':');
+			names[i] = name.toString();
+			processors[i] = processorFor(properties[i].getType());
+		}
+
+		Cacheable cacheable = plan.getType().getAnnotation(Cacheable.class);
+		this.cacheable = cacheable != null;
+		this.version = cacheable == null || cacheable.version().isEmpty() ? null : plan.getProperty(cacheable.version());
+		if (cacheable != null && !cacheable.version().isEmpty() && version == null) {
+			throw new RestException("%s is @%s with version %s but has no readable property of that name",
+					plan.getType().getName(), Cacheable.class.getSimpleName(), cacheable.version());
+		}
+	}
+
+	private static JsonValueProcessor processorFor(Class<?> type) {
+		return DateTime.class.isAssignableFrom(type) ? DateTimeProcessor : null;
+	}
+}
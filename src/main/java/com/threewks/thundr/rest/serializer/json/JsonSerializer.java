@@ -17,32 +17,63 @@
  */
 package com.threewks.thundr.rest.serializer.json;
 
+import com.google.common.collect.Lists;
 
-import com.threewks.thundr.rest.serializer.Ignore;
-import com.threewks.thundr.rest.serializer.Serializer;
+import com.google.gson.stream.JsonReader;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
 import net.sf.json.JSON;
 import net.sf.json.JSONObject;
 import net.sf.json.JSONSerializer;
 import net.sf.json.JsonConfig;
 import net.sf.json.filters.OrPropertyFilter;
-import net.sf.json.processors.JsonValueProcessor;
 import net.sf.json.util.JSONUtils;
 import net.sf.json.util.PropertyFilter;
-import org.apache.commons.beanutils.PropertyUtils;
-import org.apache.commons.lang.ObjectUtils;
 import org.joda.time.DateTime;
 
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.Method;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
 
-public class JsonSerializer implements Serializer {
+public class JsonSerializer implements StreamingSerializer {
 
 	public static final String OPTION_CALLBACK = "callback";
 
+	private static final JsonConfig toJsonConfig = new JsonConfig();
+
+	static {
+		// prevent serialization of properties with @Ignore or null values.
+		toJsonConfig.setJsonPropertyFilter(new OrPropertyFilter(new IgnoreAnnotationPropertyFilter(), new NullValuePropertyFilter()));
+		toJsonConfig.registerJsonValueProcessor(DateTime.class, new DateTimeValueProcessor());
+		JSONUtils.getMorpherRegistry().registerMorpher(new DateTimeMorpher());
+	}
+
+	private int flushInterval = JsonEncoder.DefaultFlushInterval;
+
 	public JsonSerializer() {
 	}
 
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Sets how many elements of a top level iterator or iterable output are written between flushes to the client.
+	 * 0 leaves flushing to the response buffer.
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
 	@Override
 	public String marshal(Object object) {
 		return marshal(object, null);
@@ -50,64 +81,76 @@ public class JsonSerializer implements Serializer {
 
 	@Override
 	public String marshal(Object object, Map<String, String> options) {
-		String output = toJson(object).toString();
+		StringWriter writer = new StringWriter();
+		try {
+			writeJson(object, options, writer);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to JSON: %s", e.getMessage());
+		}
+		return writer.toString();
+	}
 
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+		writeJson(object, options, writer);
+		writer.flush();
+	}
+
+	protected void writeJson(Object object, Map<String, String> options, Writer writer) throws IOException {
 		// If callback option is present wrap response in function call ala JSONP
-		if (options != null && options.containsKey(OPTION_CALLBACK)) {
-			output = options.get(OPTION_CALLBACK) + "(" + output + ");";
+		String callback = options == null ? null : options.get(OPTION_CALLBACK);
+		if (callback != null) {
+			writer.write(callback);
+			writer.write('(');
+		}
+		writeDocument(object, options, writer);
+		if (callback != null) {
+			writer.write(");");
 		}
-		return output;
+	}
+
+	/**
+	 * Writes the JSON document itself, inside any JSONP callback.
+	 */
+	protected void writeDocument(Object object, Map<String, String> options, Writer writer) throws IOException {
+		new JsonEncoder(writer).setFlushInterval(flushInterval).write(object);
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public <T> T unmarshal(Class<T> type, String json) {
+		JsonCodec<Object> codec = JsonCodecs.forClass(type);
+		if (codec != null) {
+			try {
+				return (T) codec.read(new JsonReader(new StringReader(json)));
+			} catch (IOException e) {
+				throw new RestException(e, "Failed to read %s from JSON: %s", type.getName(), e.getMessage());
+			}
+		}
+
 		JsonConfig config = new JsonConfig();
 		config.registerJsonValueProcessor(DateTime.class, new DateTimeValueProcessor());
 		config.setRootClass(type);
 
-		JSONUtils.getMorpherRegistry().registerMorpher(new DateTimeMorpher());
 		JSONObject jsonObject = JSONObject.fromObject(json, config);
 		return (T) JSONObject.toBean(jsonObject, config);
 	}
 
 	protected JSON toJson(Object object) {
-		JsonConfig config = new JsonConfig();
-		// prevent serialization of properties with @Ignore or null values.
-		OrPropertyFilter filter = new OrPropertyFilter(new IgnoreAnnotationPropertyFilter(), new NullValuePropertyFilter());
-		config.setJsonPropertyFilter(filter);
-		config.registerJsonValueProcessor(DateTime.class, new DateTimeValueProcessor());
-		return JSONSerializer.toJSON(object, config);
-	}
-
-	private static class DateTimeValueProcessor implements JsonValueProcessor {
-		@Override
-		public Object processArrayValue(Object o, JsonConfig jsonConfig) {
-			return ObjectUtils.toString(o, null);
-		}
-
-		@Override
-		public Object processObjectValue(String s, Object o, JsonConfig jsonConfig) {
-			return ObjectUtils.toString(o, null);
+		// json-lib builds a whole tree anyway, so lazy sources are simply read into a list
+		if (object instanceof Iterator) {
+			object = Lists.newArrayList((Iterator<?>) object);
+		} else if (object instanceof Iterable && !(object instanceof Collection)) {
+			object = Lists.newArrayList((Iterable<?>) object);
 		}
+		return JSONSerializer.toJSON(object, toJsonConfig);
 	}
 
 	private static class IgnoreAnnotationPropertyFilter implements PropertyFilter {
 		@Override
 		public boolean apply(Object source, String name, Object value) {
-			try {
-				PropertyDescriptor descriptor = PropertyUtils.getPropertyDescriptor(source, name);
-                if(descriptor != null){
-                    Method m = PropertyUtils.getReadMethod(descriptor);
-                    if (m.isAnnotationPresent(Ignore.class)) {
-                        return true;
-                    }
-                }
-			}
-			catch (Exception e) {
-				throw new RuntimeException(e);
-			}
-
-			return false;
+			return !(source instanceof Map) && BeanPlan.forClass(source.getClass()).isIgnored(name);
 		}
 	}
 
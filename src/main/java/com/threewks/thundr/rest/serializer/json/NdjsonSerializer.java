@@ -0,0 +1,150 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.json;
+
+import com.google.common.collect.Iterators;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Writes newline delimited JSON (<a href="http://ndjson.org/">NDJSON</a>, also known as JSON Lines): one compact JSON
+ * document per line for each element of a collection, array, iterable or iterator output, or a single line for any
+ * other output. Elements are written and flushed progressively, so consumers can start on the first records before
+ * the response is complete.
+ */
+public class NdjsonSerializer implements StreamingSerializer {
+	public static final String ContentType = "application/x-ndjson";
+	public static final String Format = "ndjson";
+
+	private final JsonSerializer jsonSerializer = new JsonSerializer();
+	private int flushInterval = JsonEncoder.DefaultFlushInterval;
+
+	public int getFlushInterval() {
+		return flushInterval;
+	}
+
+	/**
+	 * Sets how many lines are written between flushes to the client. 0 leaves flushing to the response buffer.
+	 */
+	public void setFlushInterval(int flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	@Override
+	public String marshal(Object object) {
+		return marshal(object, null);
+	}
+
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		StringWriter writer = new StringWriter();
+		try {
+			writeNdjson(object, writer);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to NDJSON: %s", e.getMessage());
+		}
+		return writer.toString();
+	}
+
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+		writeNdjson(object, writer);
+		writer.flush();
+	}
+
+	/**
+	 * Reads a body holding a single JSON document. Bodies of many records should be read incrementally
+	 * with a {@link com.threewks.thundr.rest.parser.JsonRecordReader} instead.
+	 */
+	@Override
+	public <T> T unmarshal(Class<T> type, String ndjson) {
+		String document = StringUtils.trim(ndjson);
+		if (StringUtils.contains(document, '\n')) {
+			throw new BadRequestException("Expected a single NDJSON record for %s", type.getName());
+		}
+		return jsonSerializer.unmarshal(type, document);
+	}
+
+	protected void writeNdjson(Object object, Writer writer) throws IOException {
+		JsonEncoder encoder = new JsonEncoder(writer);
+		Iterator<?> elements = elements(object);
+		int count = 0;
+		while (elements.hasNext()) {
+			Cancellation.check();
+			encoder.write(elements.next());
+			writer.write('\n');
+			if (flushInterval > 0 && ++count % flushInterval == 0) {
+				writer.flush();
+			}
+		}
+	}
+
+	private static Iterator<?> elements(Object object) {
+		if (object instanceof Iterator) {
+			return (Iterator<?>) object;
+		}
+		if (object instanceof Iterable) {
+			return ((Iterable<?>) object).iterator();
+		}
+		if (object != null && object.getClass().isArray()) {
+			return arrayIterator(object);
+		}
+		return Iterators.singletonIterator(object);
+	}
+
+	private static Iterator<Object> arrayIterator(final Object array) {
+		return new Iterator<Object>() {
+			private final int length = Array.getLength(array);
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < length;
+			}
+
+			@Override
+			public Object next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return Array.get(array, index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,298 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.msgpack;
+
+import com.google.common.base.Defaults;
+import com.google.common.reflect.TypeToken;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Reads MessagePack written by a {@link MessagePackEncoder}, or any compatible client, into the given type. Beans are
+ * populated through their writable {@link BeanPlan} properties, unknown and {@code @Ignore}d keys are skipped.
+ * <p>
+ * Array, map and binary lengths come from the untrusted input, so nothing is allocated up front from them: arrays and
+ * collections grow as their elements arrive, binary payloads are read in chunks and any declared length over the
+ * maximum is rejected. Arrays and maps nested more than {@value #MaxDepth} deep are rejected too, before reading them
+ * recursively could overflow the stack.
+ */
+class MessagePackDecoder {
+	static final int MaxDepth = 64;
+
+	private static final DateTimeFormatter DateTimeParser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+	private static final TypeVariable<?> CollectionElement = Collection.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapKey = Map.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapValue = Map.class.getTypeParameters()[1];
+
+	private static final int ChunkSize = 8192;
+
+	private final MessageUnpacker unpacker;
+	private final int maxLength;
+	private int depth = 0;
+
+	MessagePackDecoder(MessageUnpacker unpacker, int maxLength) {
+		this.unpacker = unpacker;
+		this.maxLength = maxLength;
+	}
+
+	Object read(Type type) throws IOException {
+		TypeToken<?> token = TypeToken.of(type);
+		Class<?> raw = token.getRawType();
+		ValueType valueType = unpacker.getNextFormat().getValueType();
+		if (valueType == ValueType.NIL) {
+			unpacker.unpackNil();
+			return raw.isPrimitive() ? Defaults.defaultValue(raw) : null;
+		}
+
+		if (raw == Object.class) {
+			return readAny(valueType);
+		} else if (raw == String.class) {
+			return unpacker.unpackString();
+		} else if (raw == Boolean.class || raw == boolean.class) {
+			return unpacker.unpackBoolean();
+		} else if (raw == Integer.class || raw == int.class) {
+			return unpacker.unpackInt();
+		} else if (raw == Long.class || raw == long.class) {
+			return unpacker.unpackLong();
+		} else if (raw == Short.class || raw == short.class) {
+			return unpacker.unpackShort();
+		} else if (raw == Byte.class || raw == byte.class) {
+			return unpacker.unpackByte();
+		} else if (raw == Double.class || raw == double.class) {
+			return valueType == ValueType.INTEGER ? (double) unpacker.unpackLong() : unpacker.unpackDouble();
+		} else if (raw == Float.class || raw == float.class) {
+			return valueType == ValueType.INTEGER ? (float) unpacker.unpackLong() : unpacker.unpackFloat();
+		} else if (raw == BigInteger.class) {
+			return unpacker.unpackBigInteger();
+		} else if (raw == BigDecimal.class) {
+			return readBigDecimal(valueType);
+		} else if (raw == Character.class || raw == char.class) {
+			String string = unpacker.unpackString();
+			return string.isEmpty() ? null : string.charAt(0);
+		} else if (raw == DateTime.class) {
+			return valueType == ValueType.INTEGER ? new DateTime(unpacker.unpackLong()) : DateTimeParser.parseDateTime(unpacker.unpackString());
+		} else if (raw == Date.class) {
+			return valueType == ValueType.INTEGER ? new Date(unpacker.unpackLong()) : DateTimeParser.parseDateTime(unpacker.unpackString()).toDate();
+		} else if (raw.isEnum()) {
+			return readEnum(raw, unpacker.unpackString());
+		} else if (raw == byte[].class) {
+			return readBinary();
+		} else if (raw.isArray()) {
+			return readArray(raw.getComponentType());
+		} else if (Collection.class.isAssignableFrom(raw)) {
+			return readCollection(token, raw);
+		} else if (Map.class.isAssignableFrom(raw)) {
+			return readMap(token, raw);
+		} else {
+			return readBean(token, raw);
+		}
+	}
+
+	/**
+	 * Reads a value into whichever Java type suits it, for properties declared as Object.
+	 */
+	private Object readAny(ValueType valueType) throws IOException {
+		switch (valueType) {
+			case BOOLEAN:
+				return unpacker.unpackBoolean();
+			case INTEGER:
+				BigInteger integer = unpacker.unpackBigInteger();
+				return integer.bitLength() < 64 ? (Object) integer.longValue() : integer;
+			case FLOAT:
+				return unpacker.unpackDouble();
+			case STRING:
+				return unpacker.unpackString();
+			case BINARY:
+				return readBinary();
+			case ARRAY:
+				return readCollection(TypeToken.of(List.class), List.class);
+			case MAP:
+				return readMap(TypeToken.of(Map.class), Map.class);
+			default:
+				throw new BadRequestException("Unsupported MessagePack value type %s", valueType);
+		}
+	}
+
+	private BigDecimal readBigDecimal(ValueType valueType) throws IOException {
+		switch (valueType) {
+			case INTEGER:
+				return new BigDecimal(unpacker.unpackBigInteger());
+			case FLOAT:
+				return BigDecimal.valueOf(unpacker.unpackDouble());
+			default:
+				return new BigDecimal(unpacker.unpackString());
+		}
+	}
+
+	private byte[] readBinary() throws IOException {
+		int length = checkLength(unpacker.unpackBinaryHeader(), "binary");
+		ByteArrayOutputStream payload = new ByteArrayOutputStream(Math.min(length, ChunkSize));
+		for (int remaining = length; remaining > 0; remaining -= ChunkSize) {
+			payload.write(unpacker.readPayload(Math.min(remaining, ChunkSize)));
+		}
+		return payload.toByteArray();
+	}
+
+	private Object readArray(Class<?> componentType) throws IOException {
+		int length = checkLength(unpacker.unpackArrayHeader(), "array");
+		enter();
+		List<Object> elements = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			elements.add(read(componentType));
+		}
+		depth--;
+
+		Object array = Array.newInstance(componentType, elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			Array.set(array, i, elements.get(i));
+		}
+		return array;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Collection<Object> readCollection(TypeToken<?> token, Class<?> raw) throws IOException {
+		Type elementType = token.resolveType(CollectionElement).getType();
+		int length = checkLength(unpacker.unpackArrayHeader(), "array");
+		Collection<Object> collection;
+		if (raw.isAssignableFrom(ArrayList.class)) {
+			collection = new ArrayList<>();
+		} else if (raw.isAssignableFrom(LinkedHashSet.class)) {
+			collection = new LinkedHashSet<>();
+		} else if (raw.isAssignableFrom(TreeSet.class)) {
+			collection = new TreeSet<>();
+		} else {
+			collection = (Collection<Object>) BeanPlan.forClass(raw).newInstance();
+		}
+
+		enter();
+		for (int i = 0; i < length; i++) {
+			collection.add(read(elementType));
+		}
+		depth--;
+		return collection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Object, Object> readMap(TypeToken<?> token, Class<?> raw) throws IOException {
+		Class<?> keyType = token.resolveType(MapKey).getRawType();
+		Type valueType = token.resolveType(MapValue).getType();
+		int size = checkLength(unpacker.unpackMapHeader(), "map");
+		Map<Object, Object> map;
+		if (raw.isAssignableFrom(LinkedHashMap.class)) {
+			map = new LinkedHashMap<>();
+		} else if (raw.isAssignableFrom(TreeMap.class)) {
+			map = new TreeMap<>();
+		} else {
+			map = (Map<Object, Object>) BeanPlan.forClass(raw).newInstance();
+		}
+
+		enter();
+		for (int i = 0; i < size; i++) {
+			Object key = readKey(keyType);
+			map.put(key, read(valueType));
+		}
+		depth--;
+		return map;
+	}
+
+	/**
+	 * Keys are written as strings, as they are in JSON, so are converted back to the map's key type.
+	 */
+	private Object readKey(Class<?> keyType) throws IOException {
+		if (unpacker.getNextFormat().getValueType() != ValueType.STRING) {
+			return read(keyType);
+		}
+
+		String key = unpacker.unpackString();
+		try {
+			if (keyType.isEnum()) {
+				return readEnum(keyType, key);
+			} else if (keyType == Integer.class) {
+				return Integer.valueOf(key);
+			} else if (keyType == Long.class) {
+				return Long.valueOf(key);
+			}
+		} catch (NumberFormatException e) {
+			throw new BadRequestException(e, "%s is not a valid %s", key, keyType.getSimpleName());
+		}
+		return key;
+	}
+
+	private void enter() {
+		if (++depth > MaxDepth) {
+			throw new BadRequestException("MessagePack arrays and maps are nested more than %d deep", MaxDepth);
+		}
+	}
+
+	private int checkLength(int length, String kind) {
+		if (length < 0 || length > maxLength) {
+			throw new BadRequestException("MessagePack %s length %d is over the maximum of %d", kind, length & 0xFFFFFFFFL, maxLength);
+		}
+		return length;
+	}
+
+	private Object readBean(TypeToken<?> token, Class<?> raw) throws IOException {
+		BeanPlan plan = BeanPlan.forClass(raw);
+		Object bean = plan.newInstance();
+		int size = checkLength(unpacker.unpackMapHeader(), "map");
+		enter();
+		for (int i = 0; i < size; i++) {
+			String name = unpacker.unpackString();
+			BeanProperty property = plan.getWritableProperty(name);
+			if (property == null) {
+				unpacker.skipValue();
+			} else {
+				property.set(bean, read(token.resolveType(property.getWriteType()).getType()));
+			}
+		}
+		depth--;
+		return bean;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readEnum(Class<?> type, String name) {
+		try {
+			return Enum.valueOf((Class<? extends Enum>) type, name);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e, "%s is not a valid %s", name, type.getSimpleName());
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.msgpack;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.DateTime;
+import org.msgpack.core.MessagePacker;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes an object graph as MessagePack, with the same shape as the JSON serializers produce: beans become maps of
+ * their {@link BeanPlan} properties with {@code @Ignore}d and null properties skipped, Joda {@link DateTime}s are
+ * written as ISO strings and {@link Date}s as epoch milliseconds. Cycles are rejected.
+ */
+class MessagePackEncoder {
+	private final MessagePacker packer;
+	private final Set<Object> path = Sets.newIdentityHashSet();
+
+	MessagePackEncoder(MessagePacker packer) {
+		this.packer = packer;
+	}
+
+	void write(Object value) throws IOException {
+		if (value == null) {
+			packer.packNil();
+		} else if (value instanceof String) {
+			packer.packString((String) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+				|| value instanceof AtomicInteger || value instanceof AtomicLong) {
+			packer.packLong(((Number) value).longValue());
+		} else if (value instanceof Double) {
+			packer.packDouble((Double) value);
+		} else if (value instanceof Float) {
+			packer.packFloat((Float) value);
+		} else if (value instanceof BigInteger) {
+			packer.packBigInteger((BigInteger) value);
+		} else if (value instanceof BigDecimal) {
+			// Kept exact, as a double would round it
+			packer.packString(value.toString());
+		} else if (value instanceof Number) {
+			packer.packDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean) {
+			packer.packBoolean((Boolean) value);
+		} else if (value instanceof Character || value instanceof DateTime) {
+			packer.packString(value.toString());
+		} else if (value instanceof Date) {
+			packer.packLong(((Date) value).getTime());
+		} else if (value instanceof Enum) {
+			packer.packString(((Enum<?>) value).name());
+		} else if (value instanceof byte[]) {
+			byte[] bytes = (byte[]) value;
+			packer.packBinaryHeader(bytes.length);
+			packer.writePayload(bytes);
+		} else if (value instanceof Map) {
+			writeMap((Map<?, ?>) value);
+		} else if (value instanceof Collection) {
+			writeCollection(value, (Collection<?>) value);
+		} else if (value instanceof Iterable) {
+			// MessagePack arrays declare their length up front, so lazy sources have to be drained first
+			writeCollection(value, Lists.newArrayList((Iterable<?>) value));
+		} else if (value instanceof Iterator) {
+			writeCollection(value, Lists.newArrayList((Iterator<?>) value));
+		} else if (value.getClass().isArray()) {
+			writeArray(value);
+		} else {
+			writeBean(value);
+		}
+	}
+
+	private void writeBean(Object bean) throws IOException {
+		enter(bean);
+		List<BeanProperty> properties = BeanPlan.forClass(bean.getClass()).getProperties();
+		Object[] values = new Object[properties.size()];
+		int count = 0;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = properties.get(i).get(bean);
+			if (values[i] != null) {
+				count++;
+			}
+		}
+
+		packer.packMapHeader(count);
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				packer.packString(properties.get(i).getName());
+				write(values[i]);
+			}
+		}
+		exit(bean);
+	}
+
+	private void writeMap(Map<?, ?> map) throws IOException {
+		enter(map);
+		int count = 0;
+		for (Object value : map.values()) {
+			if (value != null) {
+				count++;
+			}
+		}
+
+		packer.packMapHeader(count);
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getValue() != null) {
+				packer.packString(String.valueOf(entry.getKey()));
+				write(entry.getValue());
+			}
+		}
+		exit(map);
+	}
+
+	private void writeCollection(Object source, Collection<?> elements) throws IOException {
+		enter(source);
+		packer.packArrayHeader(elements.size());
+		for (Object element : elements) {
+			Cancellation.check();
+			write(element);
+		}
+		exit(source);
+	}
+
+	private void writeArray(Object array) throws IOException {
+		enter(array);
+		int length = Array.getLength(array);
+		packer.packArrayHeader(length);
+		for (int i = 0; i < length; i++) {
+			Cancellation.check();
+			write(Array.get(array, i));
+		}
+		exit(array);
+	}
+
+	private void enter(Object container) {
+		if (!path.add(container)) {
+			throw new RestException("There is a cycle in the hierarchy!");
+		}
+	}
+
+	private void exit(Object container) {
+		path.remove(container);
+	}
+}
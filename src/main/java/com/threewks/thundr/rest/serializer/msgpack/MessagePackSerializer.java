@@ -0,0 +1,109 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.msgpack;
+
+import com.google.common.base.Charsets;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Serializes to <a href="http://msgpack.org/">MessagePack</a>, a compact binary equivalent of JSON for callers which
+ * don't need a human readable payload. Documents have the same structure as the JSON serializers produce, so
+ * {@code @Ignore} and null properties are left out and Joda DateTimes are ISO strings.
+ * <p>
+ * MessagePack is binary, so the String forms of {@link #marshal(Object)} and {@link #unmarshal(Class, String)} hold
+ * one byte per character (ISO-8859-1). Prefer the stream forms, which the view resolver uses for responses, and
+ * {@link #unmarshal(Class, InputStream)} to read a request body.
+ */
+public class MessagePackSerializer implements StreamingSerializer {
+	public static final String ContentType = "application/msgpack";
+	public static final String LegacyContentType = "application/x-msgpack";
+	public static final String Format = "msgpack";
+	/**
+	 * Largest string, binary, array or map length accepted in a request body by default
+	 */
+	public static final int DefaultMaxLength = 16 * 1024 * 1024;
+
+	private int maxLength = DefaultMaxLength;
+
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Sets the largest string, binary, array or map length accepted when unmarshalling. Longer values are rejected as
+	 * a bad request before anything is allocated for them.
+	 */
+	public void setMaxLength(int maxLength) {
+		this.maxLength = maxLength;
+	}
+
+	@Override
+	public String marshal(Object object) {
+		return marshal(object, null);
+	}
+
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			marshal(object, options, out, Charsets.ISO_8859_1);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to MessagePack: %s", e.getMessage());
+		}
+		return new String(out.toByteArray(), Charsets.ISO_8859_1);
+	}
+
+	/**
+	 * Writes the object as MessagePack. The charset is ignored, strings are always UTF-8 as the format requires.
+	 */
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		MessagePacker packer = MessagePack.newDefaultPacker(outputStream);
+		new MessagePackEncoder(packer).write(object);
+		packer.flush();
+	}
+
+	@Override
+	public <T> T unmarshal(Class<T> type, String object) {
+		return unmarshal(type, new ByteArrayInputStream(object.getBytes(Charsets.ISO_8859_1)));
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T unmarshal(Class<T> type, InputStream inputStream) {
+		MessageUnpacker unpacker = new MessagePack.UnpackerConfig().withStringSizeLimit(maxLength).newUnpacker(inputStream);
+		try {
+			return (T) new MessagePackDecoder(unpacker, maxLength).read(type);
+		} catch (IOException | MessagePackException e) {
+			throw new BadRequestException(e, "Failed to read MessagePack as %s: %s", type.getName(), e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,375 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.processor;
+
+import com.threewks.thundr.rest.serializer.Ignore;
+import com.threewks.thundr.rest.serializer.Precompiled;
+import com.threewks.thundr.rest.serializer.json.JsonCodecs;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates a {@link com.threewks.thundr.rest.serializer.json.JsonCodec} for every class marked with
+ * {@link Precompiled}. Properties are discovered the same way as the reflective serializers: public getters in name
+ * order, excluding those marked with {@link Ignore}, bound back through their matching setters.
+ */
+@SupportedAnnotationTypes("com.threewks.thundr.rest.serializer.Precompiled")
+public class JsonCodecProcessor extends AbstractProcessor {
+	private static final String XmlRootElement = "javax.xml.bind.annotation.XmlRootElement";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(Precompiled.class)) {
+			if (element.getKind() != ElementKind.CLASS) {
+				error(element, "@Precompiled can only be applied to classes");
+				continue;
+			}
+
+			TypeElement type = (TypeElement) element;
+			if (isValid(type)) {
+				try {
+					generate(type);
+				} catch (IOException e) {
+					error(type, "Failed to generate JSON codec: " + e.getMessage());
+				}
+			}
+		}
+		return true;
+	}
+
+	private boolean isValid(TypeElement type) {
+		if (!type.getTypeParameters().isEmpty()) {
+			error(type, "@Precompiled classes cannot declare type parameters");
+			return false;
+		}
+		if (type.getModifiers().contains(Modifier.PRIVATE)) {
+			error(type, "@Precompiled classes cannot be private");
+			return false;
+		}
+		if (type.getNestingKind() != NestingKind.TOP_LEVEL
+				&& (type.getNestingKind() != NestingKind.MEMBER || !type.getModifiers().contains(Modifier.STATIC))) {
+			error(type, "@Precompiled classes must be top level or static nested classes");
+			return false;
+		}
+		if (!hasDefaultConstructor(type)) {
+			error(type, "@Precompiled classes must be concrete and have a non-private constructor without parameters");
+			return false;
+		}
+		return true;
+	}
+
+	private void generate(TypeElement type) throws IOException {
+		PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+		String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+		String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+		String codecName = codecName(packageName, binaryName);
+		String codecSimpleName = codecName.substring(codecName.lastIndexOf('.') + 1);
+		String typeName = type.getQualifiedName().toString();
+		List<Property> properties = properties(type);
+
+		JavaFileObject file = processingEnv.getFiler().createSourceFile(codecName, type);
+		PrintWriter out = new PrintWriter(file.openWriter());
+		try {
+			if (!packageName.isEmpty()) {
+				out.printf("package %s;%n%n", packageName);
+			}
+			out.printf("// Generated by %s from %s, do not edit%n", getClass().getName(), typeName);
+			out.printf("public final class %s implements com.threewks.thundr.rest.serializer.json.JsonCodec<%s> {%n", codecSimpleName, typeName);
+			for (Property property : properties) {
+				if (property.setter != null && !isDirectlyReadable(property.type)) {
+					out.printf("\tprivate static final java.lang.reflect.Type %s = %s;%n", property.typeConstant(), typeLiteral(property.type));
+				}
+			}
+			out.println();
+
+			out.printf("\t@Override%n\tpublic String rootElementName() {%n\t\treturn \"%s\";%n\t}%n%n", escape(rootElementName(type, binaryName)));
+
+			writeMethod(out, typeName, properties);
+			out.println();
+			readMethod(out, typeName, properties);
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeMethod(PrintWriter out, String typeName, List<Property> properties) {
+		out.printf("\t@Override%n");
+		out.printf("\tpublic void write(%s value, com.threewks.thundr.rest.serializer.json.JsonEncoder encoder, java.io.Writer out) throws java.io.IOException {%n", typeName);
+		out.printf("\t\tboolean first = true;%n");
+		out.printf("\t\tout.write('{');%n");
+		for (Property property : properties) {
+			TypeKind kind = property.type.getKind();
+			out.printf("\t\t{%n");
+			out.printf("\t\t\t%s v = value.%s();%n", property.type, property.getter.getSimpleName());
+			String indent = "\t\t\t";
+			if (!kind.isPrimitive()) {
+				out.printf("\t\t\tif (v != null) {%n");
+				indent = "\t\t\t\t";
+			}
+			out.printf("%sif (!first) {%n%s\tout.write(',');%n%s}%n", indent, indent, indent);
+			out.printf("%sfirst = false;%n", indent);
+			out.printf("%sout.write(\"\\\"%s\\\":\");%n", indent, property.name);
+			out.printf("%s%s;%n", indent, writeValue(property.type));
+			if (!kind.isPrimitive()) {
+				out.printf("\t\t\t}%n");
+			}
+			out.printf("\t\t}%n");
+		}
+		out.printf("\t\tout.write('}');%n");
+		out.printf("\t}%n");
+	}
+
+	private String writeValue(TypeMirror type) {
+		switch (type.getKind()) {
+			case INT:
+			case LONG:
+			case SHORT:
+			case BYTE:
+				return "out.write(String.valueOf(v))";
+			case BOOLEAN:
+				return "out.write(v ? \"true\" : \"false\")";
+			case CHAR:
+				return "com.threewks.thundr.rest.serializer.json.JsonEncoder.writeString(out, String.valueOf(v))";
+			default:
+				if (isString(type)) {
+					return "com.threewks.thundr.rest.serializer.json.JsonEncoder.writeString(out, v)";
+				}
+				return "encoder.write(v)";
+		}
+	}
+
+	private void readMethod(PrintWriter out, String typeName, List<Property> properties) {
+		out.printf("\t@Override%n");
+		out.printf("\t@SuppressWarnings(\"unchecked\")%n");
+		out.printf("\tpublic %s read(com.google.gson.stream.JsonReader in) throws java.io.IOException {%n", typeName);
+
+		out.printf("\t\tif (in.peek() == com.google.gson.stream.JsonToken.NULL) {%n\t\t\tin.nextNull();%n\t\t\treturn null;%n\t\t}%n");
+		out.printf("\t\t%s value = new %s();%n", typeName, typeName);
+		out.printf("\t\tin.beginObject();%n");
+		out.printf("\t\twhile (in.hasNext()) {%n");
+		out.printf("\t\t\tswitch (in.nextName()) {%n");
+		for (Property property : properties) {
+			if (property.setter != null) {
+				out.printf("\t\t\t\tcase \"%s\":%n", property.name);
+				out.printf("\t\t\t\t\tvalue.%s(%s);%n", property.setter.getSimpleName(), readValue(property));
+				out.printf("\t\t\t\t\tbreak;%n");
+			}
+		}
+		out.printf("\t\t\t\tdefault:%n\t\t\t\t\tin.skipValue();%n");
+		out.printf("\t\t\t}%n");
+		out.printf("\t\t}%n");
+		out.printf("\t\tin.endObject();%n");
+		out.printf("\t\treturn value;%n");
+		out.printf("\t}%n");
+	}
+
+	private String readValue(Property property) {
+		switch (property.type.getKind()) {
+			case INT:
+				return "in.nextInt()";
+			case LONG:
+				return "in.nextLong()";
+			case SHORT:
+				return "(short) in.nextInt()";
+			case BYTE:
+				return "(byte) in.nextInt()";
+			case DOUBLE:
+				return "in.nextDouble()";
+			case FLOAT:
+				return "(float) in.nextDouble()";
+			case BOOLEAN:
+				return "in.nextBoolean()";
+			case CHAR:
+				return "in.nextString().charAt(0)";
+			default:
+				if (isString(property.type)) {
+					return "com.threewks.thundr.rest.serializer.json.JsonCodecs.readString(in)";
+				}
+				String erasure = processingEnv.getTypeUtils().erasure(property.type).toString();
+				return String.format("(%s) com.threewks.thundr.rest.serializer.json.JsonCodecs.read(in, %s)", erasure, property.typeConstant());
+		}
+	}
+
+	private List<Property> properties(TypeElement type) {
+		Map<String, Property> properties = new TreeMap<String, Property>();
+		List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type));
+
+		for (ExecutableElement method : methods) {
+			String name = propertyName(method);
+			if (name != null && !properties.containsKey(name)) {
+				properties.put(name, new Property(name, method));
+			}
+		}
+
+		List<Property> result = new ArrayList<Property>();
+		for (Property property : properties.values()) {
+			if (property.getter.getAnnotation(Ignore.class) != null) {
+				continue;
+			}
+			property.setter = setter(methods, property);
+			result.add(property);
+		}
+		Collections.sort(result, new Comparator<Property>() {
+			@Override
+			public int compare(Property a, Property b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+		return result;
+	}
+
+	private String propertyName(ExecutableElement method) {
+		if (!isAccessible(method) || !method.getParameters().isEmpty()) {
+			return null;
+		}
+
+		String methodName = method.getSimpleName().toString();
+		TypeKind returnKind = method.getReturnType().getKind();
+		String name = null;
+		if (methodName.startsWith("is") && methodName.length() > 2 && returnKind == TypeKind.BOOLEAN) {
+			name = Introspector.decapitalize(methodName.substring(2));
+		} else if (methodName.startsWith("get") && methodName.length() > 3 && returnKind != TypeKind.VOID) {
+			name = Introspector.decapitalize(methodName.substring(3));
+		}
+		return "class".equals(name) || "declaringClass".equals(name) || "metaClass".equals(name) ? null : name;
+	}
+
+	private ExecutableElement setter(List<ExecutableElement> methods, Property property) {
+		String setterName = "set" + property.getter.getSimpleName().toString().substring(property.getter.getSimpleName().toString().startsWith("is") ? 2 : 3);
+		for (ExecutableElement method : methods) {
+			if (isAccessible(method) && method.getSimpleName().contentEquals(setterName) && method.getParameters().size() == 1
+					&& processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), property.type)) {
+				return method;
+			}
+		}
+		return null;
+	}
+
+	private boolean hasDefaultConstructor(TypeElement type) {
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String rootElementName(TypeElement type, String binaryName) {
+		for (AnnotationMirror annotation : type.getAnnotationMirrors()) {
+			if (((TypeElement) annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(XmlRootElement)) {
+				for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : processingEnv.getElementUtils().getElementValuesWithDefaults(annotation).entrySet()) {
+					if (entry.getKey().getSimpleName().contentEquals("name")) {
+						return entry.getValue().getValue().toString();
+					}
+				}
+			}
+		}
+		return binaryName;
+	}
+
+	private String typeLiteral(TypeMirror type) {
+		if (type.getKind() == TypeKind.DECLARED && !((DeclaredType) type).getTypeArguments().isEmpty()) {
+			return String.format("new com.google.gson.reflect.TypeToken<%s>() { }.getType()", type);
+		}
+		return processingEnv.getTypeUtils().erasure(type) + ".class";
+	}
+
+	/**
+	 * Mirrors {@link JsonCodecs#codecName(String, String)}, without initialising JsonCodecs inside the compiler.
+	 */
+	private static String codecName(String packageName, String binaryName) {
+		String name = packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1);
+		String prefix = packageName.isEmpty() ? "" : packageName + ".";
+		return prefix + name.replace('$', '_') + JsonCodecs.CodecSuffix;
+	}
+
+	private boolean isDirectlyReadable(TypeMirror type) {
+		return type.getKind().isPrimitive() || isString(type);
+	}
+
+	private static boolean isString(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED && "java.lang.String".equals(type.toString());
+	}
+
+	private static boolean isAccessible(ExecutableElement method) {
+		Set<Modifier> modifiers = method.getModifiers();
+		return modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.STATIC);
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	private static class Property {
+		private final String name;
+		private final ExecutableElement getter;
+		private final TypeMirror type;
+		private ExecutableElement setter;
+
+		Property(String name, ExecutableElement getter) {
+			this.name = name;
+			this.getter = getter;
+			this.type = getter.getReturnType();
+		}
+
+		String typeConstant() {
+			return name + "Type";
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.google.protobuf.WireFormat;
+
+/**
+ * The protobuf scalar types Java property values are written as, with the wire type each is encoded with.
+ */
+enum ProtoType {
+	Text("string", WireFormat.WIRETYPE_LENGTH_DELIMITED),
+	SInt32("sint32", WireFormat.WIRETYPE_VARINT),
+	SInt64("sint64", WireFormat.WIRETYPE_VARINT),
+	Bool("bool", WireFormat.WIRETYPE_VARINT),
+	Double("double", WireFormat.WIRETYPE_FIXED64),
+	Float("float", WireFormat.WIRETYPE_FIXED32),
+	Bytes("bytes", WireFormat.WIRETYPE_LENGTH_DELIMITED),
+	Message(null, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+	private final String name;
+	private final int wireType;
+
+	ProtoType(String name, int wireType) {
+		this.name = name;
+		this.wireType = wireType;
+	}
+
+	/**
+	 * @return the type's name in a .proto file, or null for messages which are named after their class
+	 */
+	String getName() {
+		return name;
+	}
+
+	int getWireType() {
+		return wireType;
+	}
+
+	/**
+	 * @return true if repeated values of this type are written packed into a single length delimited field
+	 */
+	boolean isPackable() {
+		return wireType != WireFormat.WIRETYPE_LENGTH_DELIMITED;
+	}
+}
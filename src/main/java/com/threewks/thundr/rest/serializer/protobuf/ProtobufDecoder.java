@@ -0,0 +1,303 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.google.common.base.Defaults;
+import com.google.common.primitives.Primitives;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Reads protobuf messages written by a {@link ProtobufEncoder}, or by any client using the generated schema, into
+ * beans through their writable {@link ProtobufPlan} properties. Unknown and {@code @Ignore}d fields are skipped, and
+ * repeated numbers are accepted both packed and unpacked.
+ */
+class ProtobufDecoder {
+	static final int MaxDepth = 64;
+
+	private static final DateTimeFormatter DateTimeParser = ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+
+	private final CodedInputStream in;
+	private int depth = 0;
+
+	ProtobufDecoder(CodedInputStream in) {
+		this.in = in;
+	}
+
+	Object read(Class<?> type) throws IOException {
+		return readFields(ProtobufPlan.forClass(type));
+	}
+
+	/**
+	 * Reads a stream of length delimited messages, as written for a collection.
+	 */
+	List<Object> readDelimited(Class<?> type) throws IOException {
+		ProtobufPlan plan = ProtobufPlan.forClass(type);
+		List<Object> messages = new ArrayList<>();
+		while (!in.isAtEnd()) {
+			messages.add(readMessage(plan));
+		}
+		return messages;
+	}
+
+	private Object readMessage(ProtobufPlan plan) throws IOException {
+		int limit = in.pushLimit(in.readRawVarint32());
+		Object message = readFields(plan);
+		in.popLimit(limit);
+		return message;
+	}
+
+	private Object readFields(ProtobufPlan plan) throws IOException {
+		if (++depth > MaxDepth) {
+			throw new BadRequestException("Protobuf messages are nested more than %d deep", MaxDepth);
+		}
+
+		Object bean = plan.beanPlan.newInstance();
+		Map<ProtobufPlan.Field, Object> containers = new HashMap<>();
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			ProtobufPlan.Field field = plan.getField(WireFormat.getTagFieldNumber(tag));
+			if (field == null || field.writable == null) {
+				in.skipField(tag);
+				continue;
+			}
+
+			int wireType = WireFormat.getTagWireType(tag);
+			switch (field.cardinality) {
+				case Single:
+					checkWireType(plan, field, wireType, field.type.getWireType());
+					field.writable.set(bean, readValue(field.type, field.valueType));
+					break;
+				case Repeated:
+					readRepeated(plan, field, wireType, elements(containers, field));
+					break;
+				case Map:
+					checkWireType(plan, field, wireType, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+					readEntry(field, entries(containers, field));
+					break;
+			}
+		}
+
+		for (Map.Entry<ProtobufPlan.Field, Object> container : containers.entrySet()) {
+			ProtobufPlan.Field field = container.getKey();
+			Object value = container.getValue();
+			field.writable.set(bean, value instanceof List ? toCollection(field, (List<?>) value) : value);
+		}
+		depth--;
+		return bean;
+	}
+
+	private void readRepeated(ProtobufPlan plan, ProtobufPlan.Field field, int wireType, List<Object> elements) throws IOException {
+		if (wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED && field.type.isPackable()) {
+			int limit = in.pushLimit(in.readRawVarint32());
+			while (in.getBytesUntilLimit() > 0) {
+				elements.add(readValue(field.type, field.valueType));
+			}
+			in.popLimit(limit);
+		} else {
+			checkWireType(plan, field, wireType, field.type.getWireType());
+			elements.add(readValue(field.type, field.valueType));
+		}
+	}
+
+	private void readEntry(ProtobufPlan.Field field, Map<Object, Object> entries) throws IOException {
+		int limit = in.pushLimit(in.readRawVarint32());
+		Object key = null;
+		Object value = null;
+		int tag;
+		while ((tag = in.readTag()) != 0) {
+			int number = WireFormat.getTagFieldNumber(tag);
+			int wireType = WireFormat.getTagWireType(tag);
+			if (number == 1 && wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+				key = readKey(field.keyType, in.readString());
+			} else if (number == 2 && wireType == field.type.getWireType()) {
+				value = readValue(field.type, field.valueType);
+			} else {
+				in.skipField(tag);
+			}
+		}
+		in.popLimit(limit);
+
+		// proto3 encoders leave out keys and values which are their type's default, such as 0, "" and false
+		entries.put(key == null ? readKey(field.keyType, "") : key, value == null ? defaultValue(field.type, field.valueType) : value);
+	}
+
+	private static Object defaultValue(ProtoType type, Class<?> valueType) {
+		switch (type) {
+			case Text:
+				return valueType == String.class ? "" : null;
+			case SInt64:
+				return valueType == Date.class ? new Date(0) : 0L;
+			case Bytes:
+				return new byte[0];
+			case Message:
+				return ProtobufPlan.forClass(valueType).beanPlan.newInstance();
+			default:
+				return Defaults.defaultValue(Primitives.unwrap(valueType));
+		}
+	}
+
+	private Object readValue(ProtoType type, Class<?> valueType) throws IOException {
+		switch (type) {
+			case Text:
+				return fromText(valueType, in.readString());
+			case SInt32:
+				int integer = in.readSInt32();
+				if (valueType == Short.class || valueType == short.class) {
+					return (short) integer;
+				} else if (valueType == Byte.class || valueType == byte.class) {
+					return (byte) integer;
+				}
+				return integer;
+			case SInt64:
+				long number = in.readSInt64();
+				return valueType == Date.class ? new Date(number) : number;
+			case Bool:
+				return in.readBool();
+			case Double:
+				return in.readDouble();
+			case Float:
+				return in.readFloat();
+			case Bytes:
+				return in.readRawBytes(in.readRawVarint32());
+			default:
+				return readMessage(ProtobufPlan.forClass(valueType));
+		}
+	}
+
+	private static Object fromText(Class<?> type, String text) {
+		if (type == Character.class || type == char.class) {
+			return text.isEmpty() ? Defaults.defaultValue(type) : text.charAt(0);
+		} else if (type == DateTime.class) {
+			return DateTimeParser.parseDateTime(text);
+		} else if (type == BigDecimal.class) {
+			return new BigDecimal(text);
+		} else if (type == BigInteger.class) {
+			return new BigInteger(text);
+		} else if (type.isEnum()) {
+			return readEnum(type, text);
+		}
+		return text;
+	}
+
+	/**
+	 * Keys are written as strings, as they are in JSON, so are converted back to the map's key type.
+	 */
+	private static Object readKey(Class<?> keyType, String key) {
+		try {
+			if (keyType.isEnum()) {
+				return readEnum(keyType, key);
+			} else if (keyType == Integer.class) {
+				return key.isEmpty() ? 0 : Integer.valueOf(key);
+			} else if (keyType == Long.class) {
+				return key.isEmpty() ? 0L : Long.valueOf(key);
+			}
+		} catch (NumberFormatException e) {
+			throw new BadRequestException(e, "%s is not a valid %s", key, keyType.getSimpleName());
+		}
+		return key;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object toCollection(ProtobufPlan.Field field, List<?> elements) {
+		Class<?> raw = field.writeType;
+		if (raw.isArray()) {
+			Object array = Array.newInstance(raw.getComponentType(), elements.size());
+			for (int i = 0; i < elements.size(); i++) {
+				Array.set(array, i, elements.get(i));
+			}
+			return array;
+		}
+
+		Collection<Object> collection;
+		if (raw.isAssignableFrom(ArrayList.class)) {
+			return elements;
+		} else if (raw.isAssignableFrom(LinkedHashSet.class)) {
+			collection = new LinkedHashSet<>();
+		} else if (raw.isAssignableFrom(TreeSet.class)) {
+			collection = new TreeSet<>();
+		} else {
+			collection = (Collection<Object>) BeanPlan.forClass(raw).newInstance();
+		}
+		collection.addAll(elements);
+		return collection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Object> elements(Map<ProtobufPlan.Field, Object> containers, ProtobufPlan.Field field) {
+		Object elements = containers.get(field);
+		if (elements == null) {
+			elements = new ArrayList<>();
+			containers.put(field, elements);
+		}
+		return (List<Object>) elements;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<Object, Object> entries(Map<ProtobufPlan.Field, Object> containers, ProtobufPlan.Field field) {
+		Object entries = containers.get(field);
+		if (entries == null) {
+			Class<?> raw = field.writeType;
+			if (raw.isAssignableFrom(LinkedHashMap.class)) {
+				entries = new LinkedHashMap<>();
+			} else if (raw.isAssignableFrom(TreeMap.class)) {
+				entries = new TreeMap<>();
+			} else {
+				entries = BeanPlan.forClass(raw).newInstance();
+			}
+			containers.put(field, entries);
+		}
+		return (Map<Object, Object>) entries;
+	}
+
+	private static void checkWireType(ProtobufPlan plan, ProtobufPlan.Field field, int wireType, int expected) {
+		if (wireType != expected) {
+			throw new BadRequestException("Field %d (%s) of %s has wire type %d, expected %d", field.number, field.name, plan.getMessageName(), wireType,
+					expected);
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readEnum(Class<?> type, String name) {
+		try {
+			return Enum.valueOf((Class<? extends Enum>) type, name);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e, "%s is not a valid %s", name, type.getSimpleName());
+		}
+	}
+}
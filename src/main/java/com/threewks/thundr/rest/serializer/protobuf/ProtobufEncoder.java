@@ -0,0 +1,229 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.google.common.collect.Sets;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Writes beans as protobuf messages straight from their {@link ProtobufPlan}s. Null properties and elements are
+ * left out, repeated numbers are packed and maps are written as repeated key/value entries, as protoc generated code
+ * does. A collection, iterator or array at the top level is written as a stream of length delimited messages, consumed
+ * one element at a time and stopping early if the response is cancelled.
+ */
+class ProtobufEncoder {
+	private final CodedOutputStream out;
+	private final Set<Object> path = Sets.newIdentityHashSet();
+
+	ProtobufEncoder(CodedOutputStream out) {
+		this.out = out;
+	}
+
+	void write(Object value) throws IOException {
+		if (value == null) {
+			return;
+		}
+
+		Iterator<?> elements = elements(value);
+		if (elements == null) {
+			writeFields(out, value, planFor(value));
+			return;
+		}
+
+		while (elements.hasNext()) {
+			Cancellation.check();
+			Object element = elements.next();
+			if (element != null) {
+				writeDelimited(out, encode(element, planFor(element)));
+			}
+		}
+	}
+
+	private void writeFields(CodedOutputStream out, Object bean, ProtobufPlan plan) throws IOException {
+		if (!path.add(bean)) {
+			throw new RestException("There is a cycle in the hierarchy!");
+		}
+
+		for (ProtobufPlan.Field field : plan.fields) {
+			Object value = field.property.get(bean);
+			if (value == null) {
+				continue;
+			}
+
+			switch (field.cardinality) {
+				case Single:
+					out.writeTag(field.number, field.type.getWireType());
+					writeValue(out, field.type, field.valueType, value);
+					break;
+				case Repeated:
+					writeRepeated(out, field, elements(value));
+					break;
+				case Map:
+					writeEntries(out, field, (Map<?, ?>) value);
+					break;
+			}
+		}
+		path.remove(bean);
+	}
+
+	private void writeRepeated(CodedOutputStream out, ProtobufPlan.Field field, Iterator<?> elements) throws IOException {
+		if (!field.type.isPackable()) {
+			while (elements.hasNext()) {
+				Object element = elements.next();
+				if (element != null) {
+					out.writeTag(field.number, field.type.getWireType());
+					writeValue(out, field.type, field.valueType, element);
+				}
+			}
+			return;
+		}
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CodedOutputStream packed = CodedOutputStream.newInstance(buffer);
+		while (elements.hasNext()) {
+			Object element = elements.next();
+			if (element != null) {
+				writeValue(packed, field.type, field.valueType, element);
+			}
+		}
+		packed.flush();
+		if (buffer.size() > 0) {
+			out.writeTag(field.number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			writeDelimited(out, buffer.toByteArray());
+		}
+	}
+
+	/**
+	 * Writes each entry as the message protoc generates for a map field, with the key as field 1 and the value as field 2.
+	 * Keys are written as strings, as they are in JSON.
+	 */
+	private void writeEntries(CodedOutputStream out, ProtobufPlan.Field field, Map<?, ?> map) throws IOException {
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getKey() == null || entry.getValue() == null) {
+				continue;
+			}
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			CodedOutputStream message = CodedOutputStream.newInstance(buffer);
+			message.writeTag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			message.writeStringNoTag(text(entry.getKey()));
+			message.writeTag(2, field.type.getWireType());
+			writeValue(message, field.type, field.valueType, entry.getValue());
+			message.flush();
+
+			out.writeTag(field.number, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+			writeDelimited(out, buffer.toByteArray());
+		}
+	}
+
+	private void writeValue(CodedOutputStream out, ProtoType type, Class<?> valueType, Object value) throws IOException {
+		switch (type) {
+			case Text:
+				out.writeStringNoTag(text(value));
+				break;
+			case SInt32:
+				out.writeSInt32NoTag(((Number) value).intValue());
+				break;
+			case SInt64:
+				out.writeSInt64NoTag(value instanceof Date ? ((Date) value).getTime() : ((Number) value).longValue());
+				break;
+			case Bool:
+				out.writeBoolNoTag((Boolean) value);
+				break;
+			case Double:
+				out.writeDoubleNoTag(((Number) value).doubleValue());
+				break;
+			case Float:
+				out.writeFloatNoTag(((Number) value).floatValue());
+				break;
+			case Bytes:
+				writeDelimited(out, (byte[]) value);
+				break;
+			case Message:
+				writeDelimited(out, encode(value, ProtobufPlan.forClass(valueType)));
+				break;
+		}
+	}
+
+	private byte[] encode(Object bean, ProtobufPlan plan) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		CodedOutputStream message = CodedOutputStream.newInstance(buffer);
+		writeFields(message, bean, plan);
+		message.flush();
+		return buffer.toByteArray();
+	}
+
+	private static void writeDelimited(CodedOutputStream out, byte[] bytes) throws IOException {
+		out.writeRawVarint32(bytes.length);
+		out.writeRawBytes(bytes);
+	}
+
+	private static String text(Object value) {
+		return value instanceof Enum ? ((Enum<?>) value).name() : value.toString();
+	}
+
+	private static ProtobufPlan planFor(Object value) {
+		if (ProtobufPlan.typeOf(value.getClass()) != ProtoType.Message) {
+			throw new RestException("Cannot serialize %s as protobuf, only beans and collections of beans can be written as messages", value.getClass().getName());
+		}
+		return ProtobufPlan.forClass(value.getClass());
+	}
+
+	/**
+	 * @return the elements of a collection, iterator or array, or null if the value is none of those
+	 */
+	private static Iterator<?> elements(final Object value) {
+		if (value instanceof Iterable) {
+			return ((Iterable<?>) value).iterator();
+		} else if (value instanceof Iterator) {
+			return (Iterator<?>) value;
+		} else if (value.getClass().isArray() && !(value instanceof byte[])) {
+			final int length = Array.getLength(value);
+			return new Iterator<Object>() {
+				private int index = 0;
+
+				@Override
+				public boolean hasNext() {
+					return index < length;
+				}
+
+				@Override
+				public Object next() {
+					return Array.get(value, index++);
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+		return null;
+	}
+}
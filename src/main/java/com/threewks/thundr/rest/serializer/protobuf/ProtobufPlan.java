@@ -0,0 +1,200 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.DateTime;
+
+import java.lang.reflect.TypeVariable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Protobuf specific view of a {@link BeanPlan}: the field number, protobuf type and cardinality of each serializable
+ * property. Every serialized property must be numbered with {@link ProtoField}: numbers are part of the wire format,
+ * so they are never derived from names or declaration order where a new property could silently move or collide with
+ * them. A missing, out of range or duplicate number is reported when the plan is built, which
+ * {@link ProtobufSchema#generate(Class[])} does for every message it reaches, so a unit test generating the schema
+ * catches it before any request does.
+ */
+class ProtobufPlan {
+	static final int MaxNumber = (1 << 29) - 1;
+	private static final int FirstReservedNumber = 19000;
+	private static final int LastReservedNumber = 19999;
+
+	private static final TypeVariable<?> CollectionElement = Collection.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapKey = Map.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapValue = Map.class.getTypeParameters()[1];
+
+	private static final LoadingCache<Class<?>, ProtobufPlan> plans = CacheBuilder.newBuilder()
+			.weakKeys()
+			.build(new CacheLoader<Class<?>, ProtobufPlan>() {
+				@Override
+				public ProtobufPlan load(Class<?> type) {
+					return new ProtobufPlan(BeanPlan.forClass(type));
+				}
+			});
+
+	enum Cardinality {
+		Single,
+		Repeated,
+		Map
+	}
+
+	static class Field {
+		final int number;
+		final String name;
+		final BeanProperty property;
+		final BeanProperty writable;
+		final Cardinality cardinality;
+		final ProtoType type;
+		final Class<?> valueType;
+		final Class<?> keyType;
+		final Class<?> writeType;
+
+		private Field(int number, BeanProperty property, BeanProperty writable, TypeToken<?> owner) {
+			this.number = number;
+			this.name = property.getName();
+			this.property = property;
+			this.writable = writable;
+			this.writeType = writable == null ? null : owner.resolveType(writable.getWriteType()).getRawType();
+
+			TypeToken<?> token = owner.resolveType(property.getGenericType());
+			Class<?> raw = token.getRawType();
+			if (raw.isArray() && raw != byte[].class) {
+				this.cardinality = Cardinality.Repeated;
+				this.valueType = raw.getComponentType();
+				this.keyType = null;
+			} else if (Collection.class.isAssignableFrom(raw)) {
+				this.cardinality = Cardinality.Repeated;
+				this.valueType = token.resolveType(CollectionElement).getRawType();
+				this.keyType = null;
+			} else if (Map.class.isAssignableFrom(raw)) {
+				this.cardinality = Cardinality.Map;
+				this.valueType = token.resolveType(MapValue).getRawType();
+				this.keyType = token.resolveType(MapKey).getRawType();
+			} else {
+				this.cardinality = Cardinality.Single;
+				this.valueType = raw;
+				this.keyType = null;
+			}
+
+			this.type = typeOf(valueType);
+			if (type == null) {
+				throw new RestException("Property %s of %s cannot be serialized as protobuf, %s has no protobuf equivalent", name, owner.getRawType().getName(),
+						token);
+			}
+		}
+	}
+
+	final Class<?> type;
+	final BeanPlan beanPlan;
+	final Field[] fields;
+	private final Map<Integer, Field> numbers;
+
+	static ProtobufPlan forClass(Class<?> type) {
+		try {
+			return plans.getUnchecked(type);
+		} catch (UncheckedExecutionException e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private ProtobufPlan(BeanPlan plan) {
+		this.type = plan.getType();
+		this.beanPlan = plan;
+
+		TypeToken<?> owner = TypeToken.of(type);
+		Map<Integer, Field> numbers = new TreeMap<>();
+		for (BeanProperty property : plan.getProperties()) {
+			Field field = new Field(numberOf(property), property, plan.getWritableProperty(property.getName()), owner);
+			Field existing = numbers.put(field.number, field);
+			if (existing != null) {
+				throw new RestException("Properties %s and %s of %s both have protobuf field number %d", existing.name, field.name, type.getName(),
+						field.number);
+			}
+		}
+		this.numbers = numbers;
+		this.fields = numbers.values().toArray(new Field[numbers.size()]);
+	}
+
+	Field getField(int number) {
+		return numbers.get(number);
+	}
+
+	/**
+	 * @return the name of the message this class is written as
+	 */
+	String getMessageName() {
+		return type.getSimpleName();
+	}
+
+	private int numberOf(BeanProperty property) {
+		ProtoField annotation = property.getAnnotation(ProtoField.class);
+		if (annotation == null) {
+			throw new RestException("Property %s of %s has no @%s, protobuf field numbers must be given explicitly", property.getName(), type.getName(),
+					ProtoField.class.getSimpleName());
+		}
+
+		int number = annotation.value();
+		if (number < 1 || number > MaxNumber || (number >= FirstReservedNumber && number <= LastReservedNumber)) {
+			throw new RestException("Property %s of %s has @%s(%d), protobuf field numbers must be from 1 to %d excluding %d to %d", property.getName(),
+					type.getName(), ProtoField.class.getSimpleName(), number, MaxNumber, FirstReservedNumber, LastReservedNumber);
+		}
+		return number;
+	}
+
+	/**
+	 * @return the protobuf type values of the given class are written as, or null if there isn't one
+	 */
+	static ProtoType typeOf(Class<?> type) {
+		if (type == String.class || type == Character.class || type == char.class || type == DateTime.class || type == BigDecimal.class
+				|| type == BigInteger.class || type.isEnum()) {
+			return ProtoType.Text;
+		} else if (type == Integer.class || type == int.class || type == Short.class || type == short.class || type == Byte.class || type == byte.class) {
+			return ProtoType.SInt32;
+		} else if (type == Long.class || type == long.class || type == Date.class) {
+			return ProtoType.SInt64;
+		} else if (type == Boolean.class || type == boolean.class) {
+			return ProtoType.Bool;
+		} else if (type == Double.class || type == double.class) {
+			return ProtoType.Double;
+		} else if (type == Float.class || type == float.class) {
+			return ProtoType.Float;
+		} else if (type == byte[].class) {
+			return ProtoType.Bytes;
+		} else if (type == Object.class || type.isPrimitive() || type.isArray() || type.isInterface() || Number.class.isAssignableFrom(type)
+				|| Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type)) {
+			return null;
+		}
+		return ProtoType.Message;
+	}
+}
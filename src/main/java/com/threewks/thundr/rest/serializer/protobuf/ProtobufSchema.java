@@ -0,0 +1,79 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.threewks.thundr.rest.RestException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates the proto3 schema {@link ProtobufSerializer} reads and writes for a set of DTO classes, for clients to
+ * compile with protoc. Each class, and every class reachable from its properties, becomes a message named after the
+ * class's simple name. The schema only changes when the DTOs do, so it can be served from an endpoint or written out
+ * at build time.
+ */
+public class ProtobufSchema {
+	/**
+	 * @return a .proto file declaring a message for each of the given classes and the classes they refer to, in the
+	 *         package of the first class
+	 */
+	public static String generate(Class<?>... types) {
+		StringBuilder proto = new StringBuilder("syntax = \"proto3\";\n");
+		if (types.length > 0 && types[0].getPackage() != null && !types[0].getPackage().getName().isEmpty()) {
+			proto.append("\npackage ").append(types[0].getPackage().getName()).append(";\n");
+		}
+
+		Map<String, Class<?>> messages = new HashMap<>();
+		Deque<Class<?>> pending = new ArrayDeque<>(Arrays.asList(types));
+		while (!pending.isEmpty()) {
+			Class<?> type = pending.poll();
+			ProtobufPlan plan = ProtobufPlan.forClass(type);
+			Class<?> existing = messages.get(plan.getMessageName());
+			if (existing == type) {
+				continue;
+			} else if (existing != null) {
+				throw new RestException("Both %s and %s would be the protobuf message %s", existing.getName(), type.getName(), plan.getMessageName());
+			}
+			messages.put(plan.getMessageName(), type);
+
+			proto.append("\nmessage ").append(plan.getMessageName()).append(" {\n");
+			for (ProtobufPlan.Field field : plan.fields) {
+				String typeName = field.type == ProtoType.Message ? ProtobufPlan.forClass(field.valueType).getMessageName() : field.type.getName();
+				if (field.type == ProtoType.Message) {
+					pending.add(field.valueType);
+				}
+
+				proto.append("  ");
+				if (field.cardinality == ProtobufPlan.Cardinality.Repeated) {
+					proto.append("repeated ").append(typeName);
+				} else if (field.cardinality == ProtobufPlan.Cardinality.Map) {
+					proto.append("map<string, ").append(typeName).append('>');
+				} else {
+					proto.append(typeName);
+				}
+				proto.append(' ').append(field.name).append(" = ").append(field.number).append(";\n");
+			}
+			proto.append("}\n");
+		}
+		return proto.toString();
+	}
+}
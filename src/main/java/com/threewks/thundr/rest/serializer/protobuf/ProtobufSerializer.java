@@ -0,0 +1,105 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.protobuf;
+
+import com.google.common.base.Charsets;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes DTOs to <a href="https://developers.google.com/protocol-buffers/">Protocol Buffers</a> without generated
+ * classes or an intermediate tree. The wire schema is derived from each class's bean properties: {@code @Ignore}d
+ * properties are left out and every other property is numbered with {@link ProtoField}.
+ * {@link ProtobufSchema#generate(Class[])} produces the matching .proto file for clients.
+ * <p>
+ * Strings, enums, Joda DateTimes and big numbers are strings, integers are zigzag encoded sint32 or sint64, Dates are
+ * sint64 milliseconds, collections and arrays are repeated fields and maps are {@code map<string, V>}. A collection at
+ * the top level is written as a stream of length delimited messages, read back with
+ * {@link #unmarshalDelimited(Class, InputStream)}.
+ * <p>
+ * Protobuf is binary, so the String forms of {@link #marshal(Object)} and {@link #unmarshal(Class, String)} hold one
+ * byte per character (ISO-8859-1). Prefer the stream forms.
+ */
+public class ProtobufSerializer implements StreamingSerializer {
+	public static final String ContentType = "application/x-protobuf";
+	public static final String Format = "protobuf";
+
+	@Override
+	public String marshal(Object object) {
+		return marshal(object, null);
+	}
+
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			marshal(object, options, out, Charsets.ISO_8859_1);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to serialize to protobuf: %s", e.getMessage());
+		}
+		return new String(out.toByteArray(), Charsets.ISO_8859_1);
+	}
+
+	/**
+	 * Writes the object as protobuf. The charset is ignored, strings are always UTF-8 as the format requires.
+	 */
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		CodedOutputStream out = CodedOutputStream.newInstance(outputStream);
+		new ProtobufEncoder(out).write(object);
+		out.flush();
+	}
+
+	@Override
+	public <T> T unmarshal(Class<T> type, String object) {
+		return unmarshal(type, new ByteArrayInputStream(object.getBytes(Charsets.ISO_8859_1)));
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T unmarshal(Class<T> type, InputStream inputStream) {
+		try {
+			return (T) new ProtobufDecoder(CodedInputStream.newInstance(inputStream)).read(type);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new BadRequestException(e, "Failed to read protobuf as %s: %s", type.getName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a stream of length delimited messages, as written for a collection, into a list of the given type.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> List<T> unmarshalDelimited(Class<T> type, InputStream inputStream) {
+		try {
+			return (List<T>) new ProtobufDecoder(CodedInputStream.newInstance(inputStream)).readDelimited(type);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new BadRequestException(e, "Failed to read protobuf as a list of %s: %s", type.getName(), e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,329 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.xml;
+
+import com.google.common.base.Defaults;
+import com.google.common.reflect.TypeToken;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import org.joda.time.DateTime;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Binds the events of an {@link XMLStreamReader} directly into the given type in a single pass, reading documents in
+ * the form {@link XmlEncoder} writes them. Beans are populated through their writable {@link BeanPlan} properties,
+ * unknown and {@code @Ignore}d elements are skipped, collection and array items are read from each child element
+ * whatever its name, and elements marked {@code json_null="true"} are null. Joda {@link DateTime}s are parsed with
+ * {@link DateTimeAdapter}. A {@link Date} is read from the {@code time} child of the element {@link XmlEncoder} writes
+ * for it, or from text holding epoch milliseconds or an ISO 8601 date.
+ */
+class XmlDecoder {
+	static final int MaxDepth = 64;
+
+	private static final String NullAttribute = "json_null";
+	private static final String TextKey = "#text";
+	private static final String TimeProperty = "time";
+	private static final DateTimeAdapter DateTimeAdapter = new DateTimeAdapter();
+	private static final TypeVariable<?> CollectionElement = Collection.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapKey = Map.class.getTypeParameters()[0];
+	private static final TypeVariable<?> MapValue = Map.class.getTypeParameters()[1];
+
+	private final XMLStreamReader reader;
+	private int depth = 0;
+
+	XmlDecoder(XMLStreamReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Reads the element the reader is positioned on, leaving the reader on its end tag.
+	 */
+	Object read(Type type) throws XMLStreamException {
+		TypeToken<?> token = TypeToken.of(type);
+		Class<?> raw = token.getRawType();
+		if ("true".equals(reader.getAttributeValue(null, NullAttribute))) {
+			skipElement();
+			return raw.isPrimitive() ? Defaults.defaultValue(raw) : null;
+		}
+
+		if (++depth > MaxDepth) {
+			throw new BadRequestException("XML elements are nested more than %d deep", MaxDepth);
+		}
+
+		Object value;
+		if (raw == Object.class) {
+			value = readAny();
+		} else if (raw.isArray()) {
+			value = readArray(raw.getComponentType());
+		} else if (Collection.class.isAssignableFrom(raw)) {
+			value = readCollection(token, raw);
+		} else if (Map.class.isAssignableFrom(raw)) {
+			value = readMap(token, raw);
+		} else if (raw == Date.class) {
+			value = readDate();
+		} else if (isScalar(raw)) {
+			value = readScalar(raw, reader.getElementText());
+		} else {
+			value = readBean(token, raw);
+		}
+		depth--;
+		return value;
+	}
+
+	/**
+	 * Reads an element into whichever Java type suits it, for properties declared as Object: text for elements
+	 * without children, a list when the children are {@code element}s and a map otherwise.
+	 */
+	private Object readAny() throws XMLStreamException {
+		Map<String, Object> map = readAttributes();
+		List<Object> list = null;
+		StringBuilder text = new StringBuilder();
+		while (nextChild(text)) {
+			if (list == null && map.isEmpty() && XmlEncoder.ElementName.equals(reader.getLocalName())) {
+				list = new ArrayList<>();
+			}
+			if (list != null) {
+				list.add(read(Object.class));
+			} else {
+				map.put(reader.getLocalName(), read(Object.class));
+			}
+		}
+
+		if (list != null) {
+			return list;
+		} else if (map.isEmpty()) {
+			return text.toString();
+		}
+		if (text.toString().trim().length() > 0) {
+			map.put(TextKey, text.toString());
+		}
+		return map;
+	}
+
+	private Object readArray(Class<?> componentType) throws XMLStreamException {
+		List<Object> elements = new ArrayList<>();
+		while (nextChild(null)) {
+			elements.add(read(componentType));
+		}
+
+		Object array = Array.newInstance(componentType, elements.size());
+		for (int i = 0; i < elements.size(); i++) {
+			Array.set(array, i, elements.get(i));
+		}
+		return array;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Collection<Object> readCollection(TypeToken<?> token, Class<?> raw) throws XMLStreamException {
+		Type elementType = token.resolveType(CollectionElement).getType();
+		Collection<Object> collection;
+		if (raw.isAssignableFrom(ArrayList.class)) {
+			collection = new ArrayList<>();
+		} else if (raw.isAssignableFrom(LinkedHashSet.class)) {
+			collection = new LinkedHashSet<>();
+		} else if (raw.isAssignableFrom(TreeSet.class)) {
+			collection = new TreeSet<>();
+		} else {
+			collection = (Collection<Object>) BeanPlan.forClass(raw).newInstance();
+		}
+
+		while (nextChild(null)) {
+			collection.add(read(elementType));
+		}
+		return collection;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<Object, Object> readMap(TypeToken<?> token, Class<?> raw) throws XMLStreamException {
+		Class<?> keyType = token.resolveType(MapKey).getRawType();
+		Type valueType = token.resolveType(MapValue).getType();
+		Map<Object, Object> map;
+		if (raw.isAssignableFrom(LinkedHashMap.class)) {
+			map = new LinkedHashMap<>();
+		} else if (raw.isAssignableFrom(TreeMap.class)) {
+			map = new TreeMap<>();
+		} else {
+			map = (Map<Object, Object>) BeanPlan.forClass(raw).newInstance();
+		}
+
+		while (nextChild(null)) {
+			Object key = readScalar(keyType == Object.class ? String.class : keyType, reader.getLocalName());
+			map.put(key, read(valueType));
+		}
+		return map;
+	}
+
+	private Object readBean(TypeToken<?> token, Class<?> raw) throws XMLStreamException {
+		BeanPlan plan = BeanPlan.forClass(raw);
+		Object bean = plan.newInstance();
+		while (nextChild(null)) {
+			BeanProperty property = plan.getWritableProperty(reader.getLocalName());
+			if (property == null) {
+				skipElement();
+			} else {
+				property.set(bean, read(token.resolveType(property.getWriteType()).getType()));
+			}
+		}
+		return bean;
+	}
+
+	/**
+	 * Reads a Date written as a bean, as json-lib and {@link XmlEncoder} write them, taking its {@code time} property
+	 * and ignoring the rest, or written as text.
+	 */
+	private Date readDate() throws XMLStreamException {
+		StringBuilder text = new StringBuilder();
+		Date date = null;
+		while (nextChild(text)) {
+			if (TimeProperty.equals(reader.getLocalName())) {
+				date = new Date((Long) readScalar(long.class, reader.getElementText()));
+			} else {
+				skipElement();
+			}
+		}
+		return date != null ? date : (Date) readScalar(Date.class, text.toString());
+	}
+
+	/**
+	 * Moves to the next child element of the current element, returning false once its end tag is reached. Text
+	 * between children is appended to the given builder if there is one and otherwise ignored.
+	 */
+	private boolean nextChild(StringBuilder text) throws XMLStreamException {
+		while (true) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					return true;
+				case XMLStreamConstants.END_ELEMENT:
+					return false;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					if (text != null) {
+						text.append(reader.getText());
+					}
+					break;
+				case XMLStreamConstants.END_DOCUMENT:
+					throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+				default:
+					// Comments and processing instructions
+			}
+		}
+	}
+
+	private void skipElement() throws XMLStreamException {
+		int open = 1;
+		while (open > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				open++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				open--;
+			}
+		}
+	}
+
+	private Map<String, Object> readAttributes() {
+		Map<String, Object> attributes = new LinkedHashMap<>();
+		for (int i = 0; i < reader.getAttributeCount(); i++) {
+			String name = reader.getAttributeLocalName(i);
+			if (!NullAttribute.equals(name)) {
+				attributes.put("@" + name, reader.getAttributeValue(i));
+			}
+		}
+		return attributes;
+	}
+
+	private static boolean isScalar(Class<?> type) {
+		return type.isPrimitive() || type.isEnum() || type == String.class || type == Boolean.class || type == Character.class
+				|| Number.class.isAssignableFrom(type) || type == DateTime.class || type == Date.class;
+	}
+
+	private static Object readScalar(Class<?> type, String text) {
+		if (type == String.class) {
+			return text;
+		}
+
+		String value = text.trim();
+		if (value.isEmpty()) {
+			return type.isPrimitive() ? Defaults.defaultValue(type) : null;
+		}
+
+		try {
+			if (type == Boolean.class || type == boolean.class) {
+				return Boolean.valueOf(value);
+			} else if (type == Integer.class || type == int.class) {
+				return Integer.valueOf(value);
+			} else if (type == Long.class || type == long.class) {
+				return Long.valueOf(value);
+			} else if (type == Short.class || type == short.class) {
+				return Short.valueOf(value);
+			} else if (type == Byte.class || type == byte.class) {
+				return Byte.valueOf(value);
+			} else if (type == Double.class || type == double.class) {
+				return Double.valueOf(value);
+			} else if (type == Float.class || type == float.class) {
+				return Float.valueOf(value);
+			} else if (type == BigInteger.class) {
+				return new BigInteger(value);
+			} else if (type == BigDecimal.class) {
+				return new BigDecimal(value);
+			} else if (type == Character.class || type == char.class) {
+				return text.charAt(0);
+			} else if (type == DateTime.class) {
+				return DateTimeAdapter.unmarshal(value);
+			} else if (type == Date.class) {
+				return value.matches("-?\\d+") ? new Date(Long.parseLong(value)) : DateTimeAdapter.unmarshal(value).toDate();
+			} else if (type.isEnum()) {
+				return readEnum(type, value);
+			}
+		} catch (BadRequestException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new BadRequestException(e, "%s is not a valid %s", value, type.getSimpleName());
+		}
+		throw new BadRequestException("Cannot read XML text as a %s", type.getName());
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object readEnum(Class<?> type, String name) {
+		try {
+			return Enum.valueOf((Class<? extends Enum>) type, name);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e, "%s is not a valid %s", name, type.getSimpleName());
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer.xml;
+
+import com.google.common.collect.Sets;
+import com.threewks.thundr.rest.Cancellation;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.serializer.BeanPlan;
+import com.threewks.thundr.rest.serializer.BeanProperty;
+import net.sf.json.JSONException;
+import org.joda.time.DateTime;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Writes an object graph as XML directly to an {@link XMLStreamWriter}, producing the same document json-lib's
+ * {@code XMLSerializer} made from the graph's JSON with type hints disabled. Properties and map entries become child
+ * elements in name order, skipping nulls and {@code @Ignore}d properties, collection elements are {@code element}s
+ * and null elements are marked {@code json_null="true"}. Map keys starting with {@code @} are attributes and
+ * {@code #text} is the element's text. Names which aren't XML names without a namespace prefix, such as map keys
+ * holding markup, are rejected with a {@link RestException} as XOM rejected them, since the writer doesn't check them.
+ * <p>
+ * Escaping goes through entity references rather than the writer's own, so the output is the same whichever StAX
+ * implementation is in use: {@code &}, {@code <}, {@code >} and carriage returns are escaped as XOM escapes them, and
+ * characters the output charset can't encode are written as character references.
+ */
+class XmlEncoder {
+	static final String ElementName = "element";
+
+	private static final String NullAttribute = "json_null";
+	private static final String TextKey = "#text";
+	private static final String CDataStart = "<![CDATA[";
+	private static final String CDataEnd = "]]>";
+	private static final String LineSeparator = System.getProperty("line.separator");
+
+	private final XMLStreamWriter out;
+	private final CharsetEncoder encoder;
+	private final Set<Object> path = Sets.newIdentityHashSet();
+
+	XmlEncoder(XMLStreamWriter out, Charset charset) {
+		this.out = out;
+		this.encoder = charset.name().startsWith("UTF-") ? null : charset.newEncoder();
+	}
+
+	void writeElement(String name, Object value) throws XMLStreamException {
+		if (value == null) {
+			emptyElement(name);
+			out.writeAttribute(NullAttribute, "true");
+		} else if (value instanceof String) {
+			writeTextElement(name, (String) value);
+		} else if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof DateTime) {
+			writeTextElement(name, value.toString());
+		} else if (value instanceof Enum) {
+			writeTextElement(name, ((Enum<?>) value).name());
+		} else if (value instanceof Map) {
+			writeMap(name, (Map<?, ?>) value);
+		} else if (value instanceof Iterable) {
+			writeElements(name, value, ((Iterable<?>) value).iterator());
+		} else if (value instanceof Iterator) {
+			writeElements(name, value, (Iterator<?>) value);
+		} else if (value.getClass().isArray()) {
+			writeArray(name, value);
+		} else {
+			writeBean(name, value);
+		}
+	}
+
+	private void writeBean(String name, Object bean) throws XMLStreamException {
+		enter(bean);
+		List<BeanProperty> properties = BeanPlan.forClass(bean.getClass()).getProperties();
+		Object[] values = new Object[properties.size()];
+		boolean empty = true;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = properties.get(i).get(bean);
+			empty &= values[i] == null;
+		}
+
+		if (empty) {
+			emptyElement(name);
+		} else {
+			startElement(name);
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] != null) {
+					writeElement(properties.get(i).getName(), values[i]);
+				}
+			}
+			out.writeEndElement();
+		}
+		exit(bean);
+	}
+
+	private void writeMap(String name, Map<?, ?> map) throws XMLStreamException {
+		enter(map);
+		Map<String, Object> entries = new TreeMap<>();
+		boolean empty = true;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			if (entry.getValue() != null) {
+				String key = String.valueOf(entry.getKey());
+				entries.put(key, entry.getValue());
+				empty &= key.startsWith("@");
+			}
+		}
+
+		if (empty) {
+			emptyElement(name);
+		} else {
+			startElement(name);
+		}
+		for (Map.Entry<String, Object> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith("@")) {
+				out.writeAttribute(checkName(entry.getKey().substring(1)), String.valueOf(entry.getValue()));
+			}
+		}
+		for (Map.Entry<String, Object> entry : entries.entrySet()) {
+			if (TextKey.equals(entry.getKey())) {
+				writeText(text(entry.getValue()));
+			} else if (!entry.getKey().startsWith("@")) {
+				writeElement(entry.getKey(), entry.getValue());
+			}
+		}
+		if (!empty) {
+			out.writeEndElement();
+		}
+		exit(map);
+	}
+
+	private void writeElements(String name, Object source, Iterator<?> elements) throws XMLStreamException {
+		enter(source);
+		if (!elements.hasNext()) {
+			emptyElement(name);
+		} else {
+			startElement(name);
+			while (elements.hasNext()) {
+				Cancellation.check();
+				writeElement(ElementName, elements.next());
+			}
+			out.writeEndElement();
+		}
+		exit(source);
+	}
+
+	private void writeArray(String name, Object array) throws XMLStreamException {
+		enter(array);
+		int length = Array.getLength(array);
+		if (length == 0) {
+			emptyElement(name);
+		} else {
+			startElement(name);
+			for (int i = 0; i < length; i++) {
+				Cancellation.check();
+				writeElement(ElementName, Array.get(array, i));
+			}
+			out.writeEndElement();
+		}
+		exit(array);
+	}
+
+	private void writeTextElement(String name, String text) throws XMLStreamException {
+		startElement(name);
+		if (text.startsWith(CDataStart) && text.endsWith(CDataEnd)) {
+			out.writeCData(text.substring(CDataStart.length(), text.length() - CDataEnd.length()));
+		} else {
+			writeText(text);
+		}
+		out.writeEndElement();
+	}
+
+	/**
+	 * Writes text content, escaping markup characters, carriage returns and unencodable characters as references.
+	 * Line feeds are written as the platform line separator.
+	 */
+	private void writeText(String text) throws XMLStreamException {
+		int length = text.length();
+		int start = 0;
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			String reference = null;
+			String replacement = null;
+			int width = 1;
+			switch (c) {
+				case '&':
+					reference = "amp";
+					break;
+				case '<':
+					reference = "lt";
+					break;
+				case '>':
+					reference = "gt";
+					break;
+				case '\r':
+					reference = "#x0D";
+					break;
+				case '\n':
+					replacement = "\n".equals(LineSeparator) ? null : LineSeparator;
+					break;
+				default:
+					if (encoder != null && c > 0x7f) {
+						width = Character.isHighSurrogate(c) && i + 1 < length ? 2 : 1;
+						if (!encoder.canEncode(text.subSequence(i, i + width))) {
+							reference = "#x" + Integer.toHexString(text.codePointAt(i)).toUpperCase();
+						}
+					}
+			}
+
+			if (reference != null || replacement != null) {
+				out.writeCharacters(text.substring(start, i));
+				if (reference != null) {
+					out.writeEntityRef(reference);
+				} else {
+					out.writeCharacters(replacement);
+				}
+				start = i + width;
+			}
+			i += width - 1;
+		}
+		out.writeCharacters(text.substring(start));
+	}
+
+	private void startElement(String name) throws XMLStreamException {
+		out.writeStartElement(checkName(name));
+	}
+
+	private void emptyElement(String name) throws XMLStreamException {
+		out.writeEmptyElement(checkName(name));
+	}
+
+	/**
+	 * @return the name, if it matches the NCName production of Namespaces in XML 1.0
+	 * @throws RestException if it doesn't
+	 */
+	static String checkName(String name) {
+		if (name.isEmpty() || !isNameStart(name.codePointAt(0))) {
+			throw new RestException("'%s' is not a valid XML name", name);
+		}
+		for (int i = Character.charCount(name.codePointAt(0)); i < name.length(); i += Character.charCount(name.codePointAt(i))) {
+			int c = name.codePointAt(i);
+			if (!isNameStart(c) && !(c == '-' || c == '.' || (c >= '0' && c <= '9') || c == 0xB7 || (c >= 0x300 && c <= 0x36F) || c == 0x203F || c == 0x2040)) {
+				throw new RestException("'%s' is not a valid XML name", name);
+			}
+		}
+		return name;
+	}
+
+	private static boolean isNameStart(int c) {
+		return (c >= 'A' && c <= 'Z') || c == '_' || (c >= 'a' && c <= 'z') || (c >= 0xC0 && c <= 0xD6) || (c >= 0xD8 && c <= 0xF6)
+				|| (c >= 0xF8 && c <= 0x2FF) || (c >= 0x370 && c <= 0x37D) || (c >= 0x37F && c <= 0x1FFF) || c == 0x200C || c == 0x200D
+				|| (c >= 0x2070 && c <= 0x218F) || (c >= 0x2C00 && c <= 0x2FEF) || (c >= 0x3001 && c <= 0xD7FF) || (c >= 0xF900 && c <= 0xFDCF)
+				|| (c >= 0xFDF0 && c <= 0xFFFD) || (c >= 0x10000 && c <= 0xEFFFF);
+	}
+
+	private static String text(Object value) {
+		if (!(value instanceof Iterable)) {
+			return String.valueOf(value);
+		}
+
+		StringBuilder text = new StringBuilder();
+		for (Object element : (Iterable<?>) value) {
+			text.append(element);
+		}
+		return text.toString();
+	}
+
+	private void enter(Object container) {
+		if (!path.add(container)) {
+			throw new JSONException("There is a cycle in the hierarchy!");
+		}
+	}
+
+	private void exit(Object container) {
+		path.remove(container);
+	}
+}
@@ -18,79 +18,137 @@
 package com.threewks.thundr.rest.serializer.xml;
 
 
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.json.JsonCodec;
+import com.threewks.thundr.rest.serializer.json.JsonCodecs;
 import com.threewks.thundr.rest.serializer.json.JsonSerializer;
 import com.threewks.thundr.rest.serializer.Serializer;
-import net.sf.json.JSON;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import net.sf.json.xml.XMLSerializer;
 
 import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 import java.io.*;
+import java.nio.charset.Charset;
+import java.util.Locale;
 import java.util.Map;
 
+/**
+ * Writes XML straight from the object graph with an {@link XMLStreamWriter}, in the same form json-lib's
+ * {@link XMLSerializer} produced from the graph's JSON: see {@link XmlEncoder}. The root element is named by the
+ * {@value #OPTION_ROOT_ELEMENT_NAME} option, the class's {@link XmlRootElement} annotation or its class name.
+ * <p>
+ * Documents are read back in a single pass with an {@link XMLStreamReader}, binding elements straight into the
+ * target type: see {@link XmlDecoder}. DTDs and external entities are not supported. Use
+ * {@link #unmarshal(Class, InputStream)} to read a large request body without buffering it as a String first.
+ */
 public class XmlSerializer extends JsonSerializer implements Serializer {
 
 	public static final String OPTION_ROOT_ELEMENT_NAME = "rootElementName";
 
+	private static final String LineSeparator = System.getProperty("line.separator");
+	private static final XMLOutputFactory OutputFactory = XMLOutputFactory.newInstance();
+	private static final XMLInputFactory InputFactory = inputFactory();
+
 	@Override
 	public String marshal(Object object) {
 		return marshal(object, null);
 	}
 
-	protected String toXml(JSON json, String rootElement) {
-		XMLSerializer xmlSerializer = new XMLSerializer();
-		xmlSerializer.setRootName(rootElement);
-		xmlSerializer.setElementName("element");
-		xmlSerializer.setTypeHintsEnabled(false);
-		xmlSerializer.setTypeHintsCompatibility(false);
+	@Override
+	public String marshal(Object object, Map<String, String> options) {
+		StringWriter writer = new StringWriter();
+		try {
+			writeXml(object, rootElementName(object, options), writer, Charsets.UTF_8);
+		} catch (IOException e) {
+			throw new RestException(e, "Failed to write XML: %s", e.getMessage());
+		}
+		return writer.toString();
+	}
 
-		// clean up line separators leftover from xom serialization
-		return cleanLineSeparators(xmlSerializer.write(json));
+	@Override
+	public void marshal(Object object, Map<String, String> options, OutputStream outputStream, Charset charset) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, charset));
+		writeXml(object, rootElementName(object, options), writer, charset);
+		writer.flush();
 	}
 
-	private String cleanLineSeparators(String xml) {
+	/**
+	 * Writes the XML declaration for the given charset on its own line, then the document with the given root element.
+	 */
+	protected void writeXml(Object object, String rootElement, Writer writer, Charset charset) throws IOException {
+		writer.write("<?xml version=\"1.0\" encoding=\"" + charset.name().toUpperCase(Locale.ENGLISH) + "\"?>");
+		writer.write(LineSeparator);
 		try {
-			BufferedReader reader = new BufferedReader(new StringReader(xml));
-			StringWriter out = new StringWriter();
-			BufferedWriter writer = new BufferedWriter(out);
-			String line = reader.readLine();
-
-			while (line != null) {
-				writer.write(line);
-				line = reader.readLine();
-				if (line != null) {
-					writer.newLine();
-				}
-			}
-
-			writer.flush();
-			return out.toString();
-		}
-		catch (IOException e) {
-			throw new RuntimeException(e);
+			XMLStreamWriter xml = OutputFactory.createXMLStreamWriter(writer);
+			new XmlEncoder(xml, charset).writeElement(rootElement, object);
+			xml.writeEndDocument();
+			xml.flush();
+		} catch (XMLStreamException e) {
+			Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+			throw new RestException(e, "Failed to write XML: %s", e.getMessage());
 		}
 	}
 
-	@Override
-	public String marshal(Object object, Map<String, String> options) {
+	private String rootElementName(Object object, Map<String, String> options) {
 		Class<?> type = object.getClass();
 		String rootElement = type.getName();
+		JsonCodec<Object> codec = JsonCodecs.forClass(type);
 
 		if (options != null && options.containsKey(OPTION_ROOT_ELEMENT_NAME)) {
 			// Root element option overrides XmlRootElement annotation
 			rootElement = options.get(OPTION_ROOT_ELEMENT_NAME);
 		}
+		else if (codec != null) {
+			rootElement = codec.rootElementName();
+		}
 		else if (type.isAnnotationPresent(XmlRootElement.class)) {
 			rootElement = type.getAnnotation(XmlRootElement.class).name();
 		}
-
-		JSON json = toJson(object);
-		return toXml(json, rootElement);
+		return rootElement;
 	}
 
 	@Override
 	public <T> T unmarshal(Class<T> type, String xml) {
-		XMLSerializer serializer = new XMLSerializer();
-		JSON json = serializer.read(xml);
-		return super.unmarshal(type, json.toString());
+		try {
+			return read(type, InputFactory.createXMLStreamReader(new StringReader(xml)));
+		} catch (XMLStreamException e) {
+			throw new BadRequestException(e, "Failed to read XML as %s: %s", type.getName(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the document from the given stream, taking its encoding from the XML declaration. The stream is not closed.
+	 */
+	public <T> T unmarshal(Class<T> type, InputStream inputStream) {
+		try {
+			return read(type, InputFactory.createXMLStreamReader(inputStream));
+		} catch (XMLStreamException e) {
+			throw new BadRequestException(e, "Failed to read XML as %s: %s", type.getName(), e.getMessage());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T read(Class<T> type, XMLStreamReader reader) throws XMLStreamException {
+		try {
+			reader.nextTag();
+			return (T) new XmlDecoder(reader).read(type);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static XMLInputFactory inputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
 	}
 }
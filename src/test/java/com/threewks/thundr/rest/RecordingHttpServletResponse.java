@@ -0,0 +1,136 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.threewks.thundr.test.mock.servlet.MockHttpServletResponse;
+
+import javax.servlet.ServletOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Mock response which records the body bytes, headers, status and content length it is given.
+ */
+public class RecordingHttpServletResponse extends MockHttpServletResponse {
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	private final ListMultimap<String, String> headers = ArrayListMultimap.create();
+	private int recordedStatus = -1;
+	private int recordedContentLength = -1;
+	private boolean committed = false;
+
+	@Override
+	public ServletOutputStream getOutputStream() {
+		return new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				committed = true;
+				body.write(b);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				committed = true;
+				body.write(b, off, len);
+			}
+		};
+	}
+
+	@Override
+	public PrintWriter getWriter() {
+		return new PrintWriter(new OutputStreamWriter(getOutputStream(), Charsets.UTF_8), true);
+	}
+
+	@Override
+	public void setStatus(int status) {
+		super.setStatus(status);
+		recordedStatus = status;
+	}
+
+	@Override
+	public void setContentLength(int contentLength) {
+		super.setContentLength(contentLength);
+		recordedContentLength = contentLength;
+	}
+
+	@Override
+	public void setHeader(String name, String value) {
+		headers.removeAll(name);
+		headers.put(name, value);
+	}
+
+	@Override
+	public void addHeader(String name, String value) {
+		headers.put(name, value);
+	}
+
+	@Override
+	public void setDateHeader(String name, long date) {
+		setHeader(name, Long.toString(date));
+	}
+
+	@Override
+	public boolean containsHeader(String name) {
+		return headers.containsKey(name);
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return committed;
+	}
+
+	@Override
+	public void reset() {
+		if (committed) {
+			throw new IllegalStateException("Response already committed");
+		}
+		headers.clear();
+		recordedStatus = -1;
+		recordedContentLength = -1;
+	}
+
+	public byte[] bodyBytes() {
+		return body.toByteArray();
+	}
+
+	public String body() {
+		return new String(body.toByteArray(), Charsets.UTF_8);
+	}
+
+	public String headerValue(String name) {
+		List<String> values = headers.get(name);
+		return values.isEmpty() ? null : values.get(values.size() - 1);
+	}
+
+	public List<String> headerValues(String name) {
+		return headers.get(name);
+	}
+
+	public int recordedStatus() {
+		return recordedStatus;
+	}
+
+	public int recordedContentLength() {
+		return recordedContentLength;
+	}
+}
@@ -25,13 +25,17 @@ import com.threewks.thundr.rest.intercept.RestActionInterceptor;
 import com.threewks.thundr.view.ViewResolverRegistry;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.*;
 
 public class RestModuleTest {
 
 	private UpdatableInjectionContext module = new InjectionContextImpl();
+	private RestModule restModule = new RestModule();
 
 	@Before
 	public void setup() {
@@ -41,7 +45,7 @@ public class RestModuleTest {
 		ActionInterceptorRegistry actionInterceptorRegistry = mock(ActionInterceptorRegistry.class);
 		module.inject(actionInterceptorRegistry).as(ActionInterceptorRegistry.class);
 
-		new RestModule().configure(module);
+		restModule.configure(module);
 	}
 
 	@Test
@@ -59,4 +63,14 @@ public class RestModuleTest {
 				Matchers.eq(Rest.class),
 				Matchers.any(RestActionInterceptor.class));
 	}
+
+	@Test
+	public void shouldShutDownRestViewResolverWhenStopped() {
+		ArgumentCaptor<RestViewResolver> viewResolver = ArgumentCaptor.forClass(RestViewResolver.class);
+		verify(module.get(ViewResolverRegistry.class)).addResolver(Matchers.eq(RestView.class), viewResolver.capture());
+		assertThat(viewResolver.getValue().isShutdown(), is(false));
+
+		restModule.stop(module);
+		assertThat(viewResolver.getValue().isShutdown(), is(true));
+	}
 }
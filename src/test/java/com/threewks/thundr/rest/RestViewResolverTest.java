@@ -18,25 +18,48 @@
 package com.threewks.thundr.rest;
 
 
+import com.google.common.base.Strings;
+import com.google.common.collect.AbstractIterator;
 import com.threewks.thundr.rest.dto.MessageDto;
 import com.threewks.thundr.rest.exception.NotAcceptableException;
 import com.threewks.thundr.rest.serializer.json.JsonSerializer;
-import com.threewks.thundr.rest.serializer.Serializer;
+import com.threewks.thundr.rest.serializer.json.NdjsonSerializer;
+import com.threewks.thundr.rest.serializer.StreamingSerializer;
+import com.threewks.thundr.rest.serializer.csv.CsvSerializer;
 import com.threewks.thundr.rest.serializer.xml.XmlSerializer;
 import com.threewks.thundr.test.mock.servlet.MockHttpServletRequest;
 import com.threewks.thundr.test.mock.servlet.MockHttpServletResponse;
+import com.threewks.thundr.view.ViewResolutionException;
 import jodd.util.MimeTypes;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.mockito.Mockito;
 
+import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.spy;
 
@@ -53,6 +76,11 @@ public class RestViewResolverTest {
 		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, new XmlSerializer());
 	}
 
+	@After
+	public void teardown() {
+		viewResolver.shutdown();
+	}
+
 	@Test
 	public void testDefaultConstructor() {
 		viewResolver = new RestViewResolver();
@@ -86,6 +114,14 @@ public class RestViewResolverTest {
 		assertThat(contentType, is(MimeTypes.MIME_APPLICATION_JSON));
 	}
 
+	@Test
+	public void testDetermineResponseContentTypeWithRegisteredFormat() {
+		viewResolver.addSerializer(NdjsonSerializer.ContentType, new NdjsonSerializer());
+		viewResolver.addFormat(NdjsonSerializer.Format, NdjsonSerializer.ContentType);
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("format", "ndjson");
+		assertThat(viewResolver.determineResponseContentType(request), is(NdjsonSerializer.ContentType));
+	}
+
 	@Test
 	public void testDetermineResponseContentTypeWithJsonpCallbackParameter() {
 		HttpServletRequest request = new MockHttpServletRequest()
@@ -142,17 +178,246 @@ public class RestViewResolverTest {
 		assertThat(contentType, is(MimeTypes.MIME_APPLICATION_XML));
 	}
 
+	@Test
+	public void testDetermineResponseContentTypeWithQualityValues() {
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET").header("Accept", "application/xml;q=0.5, application/json");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_JSON));
+
+		request = new MockHttpServletRequest()
+				.method("GET").header("Accept", "application/*;q=0.2, application/xml");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_XML));
+	}
+
+	@Test
+	public void testDetermineResponseContentTypeIgnoresRefusedTypes() {
+		viewResolver = new RestViewResolver(MimeTypes.MIME_APPLICATION_XML);
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JSON, new JsonSerializer());
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, new XmlSerializer());
+
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET").header("Accept", "application/json;q=0, text/html");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_XML));
+	}
+
+	@Test
+	public void testDetermineResponseContentTypeWithTypeWildcard() {
+		viewResolver.addSerializer(EventStream.ContentType, new JsonSerializer());
+		viewResolver.addSerializer(CsvSerializer.ContentType, new CsvSerializer());
+
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept", "text/*");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_JSON));
+
+		request = new MockHttpServletRequest().method("GET").header("Accept", "text/*, text/event-stream");
+		assertThat(viewResolver.determineResponseContentType(request), is(EventStream.ContentType));
+
+		viewResolver.addSerializer(MimeTypes.MIME_TEXT_HTML, new JsonSerializer());
+		request = new MockHttpServletRequest().method("GET").header("Accept", "text/*");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_TEXT_HTML));
+	}
+
+	@Test
+	public void testDetermineResponseContentTypePrefersDefaultForTypeWildcard() {
+		viewResolver = new RestViewResolver(MimeTypes.MIME_APPLICATION_XML);
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_JSON, new JsonSerializer());
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, new XmlSerializer());
+		viewResolver.addSerializer(NdjsonSerializer.ContentType, new NdjsonSerializer());
+
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept", "application/*");
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_XML));
+	}
+
+	@Test
+	public void testAddSerializerUpdatesNegotiatedContentTypes() {
+		viewResolver = new RestViewResolver();
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET").header("Accept", MimeTypes.MIME_APPLICATION_XML);
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_JSON));
+
+		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, new XmlSerializer());
+		assertThat(viewResolver.determineResponseContentType(request), is(MimeTypes.MIME_APPLICATION_XML));
+	}
+
 	@Test
 	public void testResolveWithValidFormatParameter() {
 		HttpServletRequest request = new MockHttpServletRequest()
 				.method("GET")
 				.parameter("format", "json");
-		MockHttpServletResponse response = new MockHttpServletResponse();
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
 
 		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
 
 		assertThat(response.getContentType(), is(MimeTypes.MIME_APPLICATION_JSON));
-		assertThat(response.content(), is("{\"message\":\"hello\"}"));
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+		assertThat(response.recordedContentLength(), is(19));
+	}
+
+	@Test
+	public void testResolveStreamsResponsesLargerThanContentLengthThreshold() {
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET")
+				.parameter("format", "json");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		viewResolver.setContentLengthThreshold(10);
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+		assertThat(response.recordedContentLength(), is(-1));
+	}
+
+	@Test
+	public void testResolveCompressesResponsesWhenAccepted() throws IOException {
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET")
+				.parameter("format", "json")
+				.header("Accept-Encoding", "deflate;q=0.5, gzip");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		viewResolver.setCompressionThreshold(10);
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.headerValue("Content-Encoding"), is("gzip"));
+		assertThat(response.headerValues("Vary"), is(Arrays.asList("Accept, Accept-Encoding")));
+		assertThat(response.recordedContentLength(), is(response.bodyBytes().length));
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.bodyBytes()));
+		assertThat(IOUtils.toString(in, "UTF-8"), is("{\"message\":\"hello\"}"));
+	}
+
+	@Test
+	public void testResolveVariesOnAcceptWithoutCachePolicyOrCompression() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept", "application/xml");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		viewResolver.setCompressionEnabled(false);
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.headerValues("Vary"), is(Arrays.asList("Accept")));
+	}
+
+	@Test
+	public void testResolveDoesNotCompressResponsesBelowCompressionThreshold() {
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET")
+				.parameter("format", "json")
+				.header("Accept-Encoding", "gzip, deflate");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.headerValue("Content-Encoding"), is(nullValue()));
+		assertThat(response.headerValues("Vary"), is(Arrays.asList("Accept, Accept-Encoding")));
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+		assertThat(response.recordedContentLength(), is(19));
+	}
+
+	@Test
+	public void testResolveDoesNotCompressWhenEncodingIsRefused() {
+		HttpServletRequest request = new MockHttpServletRequest()
+				.method("GET")
+				.parameter("format", "json")
+				.header("Accept-Encoding", "gzip;q=0, identity");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		viewResolver.setCompressionThreshold(0);
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.headerValue("Content-Encoding"), is(nullValue()));
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+	}
+
+	@Test
+	public void testResolveSendsETagAndAnswersMatchingIfNoneMatchWithNotModified() {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		viewResolver.resolve(new MockHttpServletRequest().method("GET"), response, new RestView(new MessageDto("hello")));
+
+		String etag = response.headerValue("ETag");
+		assertThat(etag, is(notNullValue()));
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("If-None-Match", etag);
+		response = new RecordingHttpServletResponse();
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.recordedStatus(), is(HttpServletResponse.SC_NOT_MODIFIED));
+		assertThat(response.headerValue("ETag"), is(etag));
+		assertThat(response.body(), is(""));
+	}
+
+	@Test
+	public void testResolveSendsBodyWhenIfNoneMatchDoesNotMatch() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("If-None-Match", "\"stale\"");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.recordedStatus(), is(HttpServletResponse.SC_OK));
+		assertThat(response.body(), is("{\"message\":\"hello\"}"));
+	}
+
+	@Test
+	public void testResolveUsesETagFromRequestAttribute() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("If-None-Match", "\"v1\"");
+		request.setAttribute(ETags.RequestAttribute, "\"v1\"");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+
+		assertThat(response.recordedStatus(), is(HttpServletResponse.SC_NOT_MODIFIED));
+		assertThat(response.headerValue("ETag"), is("\"v1\""));
+		assertThat(response.body(), is(""));
+	}
+
+	@Test
+	public void testResolveStreamsAndClosesIteratorOutput() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("format", "json");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		CursorIterator cursor = new CursorIterator(Arrays.asList("one", "two").iterator());
+
+		viewResolver.resolve(request, response, new RestView<Object>(cursor));
+
+		assertThat(response.body(), is("[\"one\",\"two\"]"));
+		assertThat(cursor.closed, is(true));
+	}
+
+	@Test
+	public void testResolveClosesIteratorOutputWhenResolutionFails() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("format", "yaml");
+		CursorIterator cursor = new CursorIterator(Arrays.asList("one", "two").iterator());
+
+		try {
+			viewResolver.resolve(request, new RecordingHttpServletResponse(), new RestView<Object>(cursor));
+		} catch (NotAcceptableException e) {
+			// expected
+		}
+		assertThat(cursor.closed, is(true));
+	}
+
+	private static class CursorIterator implements Iterator<String>, AutoCloseable {
+		private final Iterator<String> delegate;
+		private boolean closed = false;
+
+		private CursorIterator(Iterator<String> delegate) {
+			this.delegate = delegate;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return delegate.hasNext();
+		}
+
+		@Override
+		public String next() {
+			return delegate.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
 	}
 
 	@Test
@@ -173,27 +438,248 @@ public class RestViewResolverTest {
 		HttpServletRequest request = new MockHttpServletRequest()
 				.method("GET")
 				.parameter("format", "json");
-		MockHttpServletResponse response = new MockHttpServletResponse();
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
 
 		viewResolver.resolve(request, response, new RestView(null, HttpServletResponse.SC_NO_CONTENT));
-		assertThat(response.content(), is(""));
+		assertThat(response.body(), is(""));
+		assertThat(response.recordedContentLength(), is(0));
 	}
 
 	@Test
-	public void testResolveWithUnserializableObject() {
+	public void testResolveWithUnserializableObject() throws IOException {
 		HttpServletRequest request = new MockHttpServletRequest()
 				.method("GET")
 				.parameter("format", "xml");
-		MockHttpServletResponse response = new MockHttpServletResponse();
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
 
-		Serializer serializer = spy(new XmlSerializer());
+		StreamingSerializer serializer = spy(new XmlSerializer());
 		Object object = new Object();
 		doThrow(new RuntimeException("Intentional"))
-				.when(serializer).marshal(Mockito.eq(object), Mockito.anyMapOf(String.class, String.class));
+				.when(serializer).marshal(Mockito.eq(object), Mockito.anyMapOf(String.class, String.class),
+						Mockito.any(OutputStream.class), Mockito.any(Charset.class));
 
 		viewResolver = new RestViewResolver();
 		viewResolver.addSerializer(MimeTypes.MIME_APPLICATION_XML, serializer);
 
 		viewResolver.resolve(request, response, new RestView(object));
+		assertThat(response.body(), containsString("Intentional"));
+	}
+
+	@Test
+	public void testResolveEventStream() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		EventStream stream = new EventStream().setRetry(1000);
+		stream.publish("1", "greeting", new MessageDto("hello"));
+		stream.publish(new MessageDto("goodbye"));
+		stream.complete();
+
+		viewResolver.resolve(request, response, new RestView<>(stream));
+		assertThat(response.getContentType(), is(EventStream.ContentType));
+		assertThat(response.headerValue("Cache-Control"), is("no-cache"));
+		assertThat(response.headerValue("Content-Encoding"), is(nullValue()));
+		assertThat(response.body(), is("retry: 1000\n\nid: 1\nevent: greeting\ndata: {\"message\":\"hello\"}\n\ndata: {\"message\":\"goodbye\"}\n\n"));
+		assertThat(stream.isClosed(), is(true));
+	}
+
+	@Test
+	public void testResolveEventStreamWritesDataAsJson() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET")
+				.parameter("format", "xml").parameter("callback", "handle");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+
+		EventStream stream = new EventStream();
+		stream.publish(new MessageDto("hello"));
+		stream.complete();
+
+		viewResolver.resolve(request, response, new RestView<>(stream));
+		assertThat(response.getContentType(), is(EventStream.ContentType));
+		assertThat(response.body(), is("data: {\"message\":\"hello\"}\n\n"));
+	}
+
+	@Test
+	public void testResolveEventStreamSendsHeartbeatWhileIdle() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept-Encoding", "gzip");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		viewResolver.setHeartbeatInterval(10);
+
+		final EventStream stream = new EventStream();
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				stream.publish(new MessageDto("hello"));
+				stream.complete();
+			}
+		}).start();
+
+		viewResolver.resolve(request, response, new RestView<>(stream));
+		assertThat(response.body(), startsWith(":\n\n"));
+		assertThat(response.body(), endsWith("data: {\"message\":\"hello\"}\n\n"));
+	}
+
+	@Test
+	public void testEventStreamClosesWhenBufferOverflows() {
+		EventStream stream = new EventStream("7", 1);
+		assertThat(stream.getLastEventId(), is("7"));
+		assertThat(stream.publish(new MessageDto("one")), is(true));
+		assertThat(stream.publish(new MessageDto("two")), is(false));
+		assertThat(stream.isClosed(), is(true));
+	}
+
+	@Test
+	public void testResolveAbandonsWritesBlockedPastWriteTimeout() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET");
+		final CountDownLatch closed = new CountDownLatch(1);
+		MockHttpServletResponse response = new MockHttpServletResponse() {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				// Behaves like the socket of a client which has stopped reading
+				return new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						try {
+							closed.await(10, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						throw new IOException("Connection closed");
+					}
+
+					@Override
+					public void close() {
+						closed.countDown();
+					}
+				};
+			}
+		};
+		viewResolver.setContentLengthThreshold(0);
+		viewResolver.setCompressionEnabled(false);
+		viewResolver.setWriteTimeout(100);
+
+		thrown.expect(ViewResolutionException.class);
+		viewResolver.resolve(request, response, new RestView(new MessageDto("hello")));
+	}
+
+	@Test
+	public void testWriteTimeoutStillFiresWhileAnotherResponseIsBlockedClosing() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch stalledClosing = new CountDownLatch(1);
+		// A client whose socket blocks writes and also the flush a container does when the stream is closed
+		final MockHttpServletResponse stalled = new MockHttpServletResponse() {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				return new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						await(release);
+						throw new IOException("Connection closed");
+					}
+
+					@Override
+					public void close() {
+						stalledClosing.countDown();
+						await(release);
+					}
+				};
+			}
+		};
+		viewResolver.setContentLengthThreshold(0);
+		viewResolver.setCompressionEnabled(false);
+		viewResolver.setWriteTimeout(100);
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					viewResolver.resolve(new MockHttpServletRequest().method("GET"), stalled, new RestView(new MessageDto("hello")));
+				} catch (ViewResolutionException e) {
+					// Expected once released
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		assertThat(stalledClosing.await(10, TimeUnit.SECONDS), is(true));
+
+		final CountDownLatch closed = new CountDownLatch(1);
+		MockHttpServletResponse response = new MockHttpServletResponse() {
+			@Override
+			public ServletOutputStream getOutputStream() {
+				return new ServletOutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						await(closed);
+						throw new IOException("Connection closed");
+					}
+
+					@Override
+					public void close() {
+						closed.countDown();
+					}
+				};
+			}
+		};
+		try {
+			viewResolver.resolve(new MockHttpServletRequest().method("GET"), response, new RestView(new MessageDto("hello")));
+		} catch (ViewResolutionException e) {
+			// Expected, the write was abandoned
+		} finally {
+			release.countDown();
+		}
+		assertThat(closed.getCount(), is(0L));
+	}
+
+	@Test
+	public void testResolveStopsSerializingWhenCancelled() {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept-Encoding", "gzip");
+		request.setAttribute(ETags.RequestAttribute, "\"42;application/json;gzip\"");
+		viewResolver.setCompressionThreshold(0);
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		final RestContext context = viewResolver.negotiate(request);
+		final AtomicInteger produced = new AtomicInteger();
+		// Elements large enough to overflow the serializer's buffer, so compression has started before the cancel
+		Iterator<String> output = new AbstractIterator<String>() {
+			@Override
+			protected String computeNext() {
+				if (produced.incrementAndGet() == 3) {
+					context.cancel();
+				}
+				return Strings.repeat("x", 10000);
+			}
+		};
+
+		viewResolver.resolve(request, response, new RestView(output));
+		assertThat(produced.get(), is(3));
+		assertThat(response.recordedStatus(), is(HttpServletResponse.SC_GATEWAY_TIMEOUT));
+		assertThat(response.body(), is(""));
+		assertThat(response.headerValue("Content-Encoding"), is(nullValue()));
+		assertThat(response.headerValue("ETag"), is(nullValue()));
+		assertThat(viewResolver.getStats().getDeadlinesExceeded(), is(1L));
+	}
+
+	@Test
+	public void testResolveStopsSerializingAfterDeadline() throws InterruptedException {
+		HttpServletRequest request = new MockHttpServletRequest().method("GET");
+		viewResolver.negotiate(request).setTimeout(0);
+		Thread.sleep(1);
+
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		viewResolver.resolve(request, response, new RestView(Arrays.asList(1, 2, 3)));
+		assertThat(response.recordedStatus(), is(HttpServletResponse.SC_GATEWAY_TIMEOUT));
+		assertThat(viewResolver.getStats().getDeadlinesExceeded(), is(1L));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
 	}
 }
@@ -0,0 +1,91 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.cache;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class InMemoryResponseCacheTest {
+
+	@Test
+	public void shouldReturnStoredResponsesAndRecordHitsAndMisses() {
+		InMemoryResponseCache cache = new InMemoryResponseCache();
+		assertThat(cache.get("key"), is(nullValue()));
+
+		cache.put("key", response("hello", 60000));
+		CachedResponse cached = cache.get("key");
+
+		assertThat(cached, is(notNullValue()));
+		assertThat(new String(cached.getBody(), Charsets.UTF_8), is("hello"));
+		assertThat(cache.getStats().getHits(), is(1L));
+		assertThat(cache.getStats().getMisses(), is(1L));
+		assertThat(cache.getStats().getHitRate(), is(0.5));
+	}
+
+	@Test
+	public void shouldTreatExpiredResponsesAsMisses() {
+		InMemoryResponseCache cache = new InMemoryResponseCache();
+		cache.put("key", response("hello", -1));
+
+		assertThat(cache.get("key"), is(nullValue()));
+		assertThat(cache.size(), is(0L));
+		assertThat(cache.getStats().getMisses(), is(1L));
+	}
+
+	@Test
+	public void shouldEvictToStayWithinMaximumSize() {
+		InMemoryResponseCache cache = new InMemoryResponseCache(1024);
+		for (int i = 0; i < 20; i++) {
+			cache.put("key" + i, response(new String(new char[100]), 60000));
+		}
+
+		assertThat(cache.size(), is(lessThan(20L)));
+		assertThat(cache.getStats().getEvictions(), is(20L - cache.size()));
+	}
+
+	@Test
+	public void shouldAllowOnlyOneRefreshClaim() {
+		CachedResponse response = new CachedResponse("application/json", "UTF-8", new byte[0], 0, 1000);
+
+		assertThat(response.isDueForRefresh(700, 0.8), is(false));
+		assertThat(response.isDueForRefresh(800, 0.8), is(true));
+		assertThat(response.claimRefresh(800, 100), is(true));
+		assertThat(response.claimRefresh(850, 100), is(false));
+	}
+
+	@Test
+	public void shouldAllowRefreshToBeClaimedAgainOnceAClaimLapses() {
+		CachedResponse response = new CachedResponse("application/json", "UTF-8", new byte[0], 0, 1000);
+
+		assertThat(response.claimRefresh(800, 100), is(true));
+		assertThat(response.claimRefresh(899, 100), is(false));
+		assertThat(response.claimRefresh(900, 100), is(true));
+		assertThat(response.claimRefresh(950, 100), is(false));
+	}
+
+	private static CachedResponse response(String body, long ttl) {
+		long now = System.currentTimeMillis();
+		return new CachedResponse("application/json", "UTF-8", body.getBytes(Charsets.UTF_8), now, now + ttl);
+	}
+}
@@ -18,11 +18,22 @@
 package com.threewks.thundr.rest.intercept;
 
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.threewks.thundr.http.exception.HttpStatusException;
+import com.threewks.thundr.rest.ETags;
+import com.threewks.thundr.rest.RecordingHttpServletResponse;
+import com.threewks.thundr.rest.RestContext;
 import com.threewks.thundr.rest.RestView;
 import com.threewks.thundr.rest.RestViewResolver;
+import com.threewks.thundr.rest.cache.InMemoryResponseCache;
+import com.threewks.thundr.rest.cache.ResponseCapture;
 import com.threewks.thundr.rest.dto.ErrorDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.exception.NotAcceptableException;
 import com.threewks.thundr.rest.serializer.json.JsonSerializer;
+import com.threewks.thundr.rest.serializer.xml.XmlSerializer;
 import com.threewks.thundr.test.mock.servlet.MockHttpServletRequest;
 import com.threewks.thundr.test.mock.servlet.MockHttpServletResponse;
 import org.junit.Assert;
@@ -31,10 +42,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -48,7 +57,9 @@ public class RestActionInterceptorTest {
 
 	@Before
 	public void setup() {
-		interceptor = new RestActionInterceptor(new RestViewResolver());
+		RestViewResolver resolver = new RestViewResolver();
+		resolver.addSerializer("application/json", new JsonSerializer());
+		interceptor = new RestActionInterceptor(resolver);
 	}
 
 	@Test
@@ -90,15 +101,281 @@ public class RestActionInterceptorTest {
 		Assert.assertThat(response, is("{\"error\":\"Intentional\"}"));
 	}
 
+	@Test
+	public void shouldAnswerMatchingConditionalGetBeforeController() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").header("If-None-Match", "\"42;application/json\"");
+		RestView view = interceptor.before(versioned(), request, new MockHttpServletResponse());
+
+		assertThat(view, is(notNullValue()));
+		assertThat(view.getStatus(), is(HttpServletResponse.SC_NOT_MODIFIED));
+		assertThat(request.getAttribute(ETags.RequestAttribute), is((Object) "\"42;application/json\""));
+	}
+
+	@Test
+	public void shouldContinueToControllerWhenVersionHasChanged() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").header("If-None-Match", "\"41;application/json\"");
+		Object view = interceptor.before(versioned(), request, new MockHttpServletResponse());
+
+		assertThat(view, is(nullValue()));
+		assertThat(request.getAttribute(ETags.RequestAttribute), is((Object) "\"42;application/json\""));
+	}
+
+	@Test
+	public void shouldTagEachRepresentationOfAVersionDifferently() throws Exception {
+		RestViewResolver resolver = new RestViewResolver();
+		resolver.addSerializer("application/json", new JsonSerializer());
+		resolver.addSerializer("application/xml", new XmlSerializer());
+		interceptor = new RestActionInterceptor(resolver);
+
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").header("Accept", "application/xml")
+				.header("Accept-Encoding", "gzip").header("If-None-Match", "\"42;application/json;gzip\"");
+		Object view = interceptor.before(versioned(), request, new MockHttpServletResponse());
+
+		assertThat(view, is(nullValue()));
+		assertThat(request.getAttribute(ETags.RequestAttribute), is((Object) "\"42;application/xml;gzip\""));
+	}
+
+	@Test
+	public void shouldApplyCachePolicyToSuccessfulResponses() throws Exception {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		interceptor.after(annotation("cachedAction"), new RestView<Object>("hello"), new MockHttpServletRequest(), response);
+
+		assertThat(response.headerValue("Cache-Control"), is("public, max-age=60, s-maxage=300, stale-while-revalidate=30"));
+		assertThat(response.headerValue("Expires"), is(notNullValue()));
+	}
+
+	@Test
+	public void shouldNotApplyCachePolicyToErrorResponses() throws Exception {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		interceptor.after(annotation("cachedAction"), new RestView<Object>("oops", HttpServletResponse.SC_NOT_FOUND), new MockHttpServletRequest(), response);
+
+		assertThat(response.headerValue("Cache-Control"), is(nullValue()));
+	}
+
+	@Test
+	public void shouldNotSetCachingHeadersWithoutPolicy() throws Exception {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		interceptor.after(versioned(), new RestView<Object>("hello"), new MockHttpServletRequest(), response);
+
+		assertThat(response.headerValue("Cache-Control"), is(nullValue()));
+		assertThat(response.headerValue("Expires"), is(nullValue()));
+	}
+
+	@Test
+	public void shouldPreferNoStore() throws Exception {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		interceptor.after(annotation("uncachedAction"), new RestView<Object>("hello"), new MockHttpServletRequest(), response);
+
+		assertThat(response.headerValue("Cache-Control"), is("no-store"));
+	}
+
+	@Test
+	public void shouldServeRepeatRequestsFromResponseCache() throws Exception {
+		RestViewResolver resolver = new RestViewResolver();
+		resolver.addSerializer("application/json", new JsonSerializer());
+		InMemoryResponseCache cache = new InMemoryResponseCache();
+		RestActionInterceptor interceptor = new RestActionInterceptor(resolver, cache);
+
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("id", "1");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		Object view = interceptor.before(annotation("serverCachedAction"), request, response);
+		assertThat(view, is(nullValue()));
+		resolver.resolve(request, response, new RestView<Object>(new ErrorDto("computed")));
+		assertThat(cache.getStats().getMisses(), is(1L));
+
+		request = new MockHttpServletRequest().method("GET").parameter("id", "1");
+		response = new RecordingHttpServletResponse();
+		RestView cachedView = interceptor.before(annotation("serverCachedAction"), request, response);
+		assertThat(cachedView, is(notNullValue()));
+		resolver.resolve(request, response, cachedView);
+
+		assertThat(response.body(), is("{\"error\":\"computed\"}"));
+		assertThat(cache.getStats().getHits(), is(1L));
+	}
+
+	@Test
+	public void shouldNotServeResponseCachedForAnotherQuery() throws Exception {
+		RestViewResolver resolver = new RestViewResolver();
+		resolver.addSerializer("application/json", new JsonSerializer());
+		InMemoryResponseCache cache = new InMemoryResponseCache();
+		RestActionInterceptor interceptor = new RestActionInterceptor(resolver, cache);
+
+		// ?a=1%26b%3D2 has a single parameter whose value looks like the query ?a=1&b=2
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("a", "1&b=2");
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		assertThat(interceptor.before(annotation("serverCachedAction"), request, response), is(nullValue()));
+		resolver.resolve(request, response, new RestView<Object>(new ErrorDto("poisoned")));
+
+		request = new MockHttpServletRequest().method("GET").parameter("a", "1").parameter("b", "2");
+		Object view = interceptor.before(annotation("serverCachedAction"), request, new RecordingHttpServletResponse());
+		assertThat(view, is(nullValue()));
+		assertThat(cache.getStats().getHits(), is(0L));
+		assertThat(cache.getStats().getMisses(), is(2L));
+	}
+
+	@Test
+	public void shouldNotUseResponseCacheWithoutTtl() throws Exception {
+		RestViewResolver resolver = new RestViewResolver();
+		resolver.addSerializer("application/json", new JsonSerializer());
+		InMemoryResponseCache cache = new InMemoryResponseCache();
+		RestActionInterceptor interceptor = new RestActionInterceptor(resolver, cache);
+
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET");
+		Object view = interceptor.before(annotation("cachedAction"), request, new MockHttpServletResponse());
+
+		assertThat(view, is(nullValue()));
+		assertThat(request.getAttribute(ResponseCapture.RequestAttribute), is(nullValue()));
+	}
+
+	@Test
+	public void shouldNegotiateBeforeController() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("format", "json");
+		Object view = interceptor.before(annotation("cachedAction"), request, new MockHttpServletResponse());
+
+		assertThat(view, is(nullValue()));
+		RestContext context = RestContext.get(request);
+		assertThat(context, is(notNullValue()));
+		assertThat(context.getContentType(), is("application/json"));
+		assertThat(context.getSerializer(), is(instanceOf(JsonSerializer.class)));
+		assertThat(context.getOptions().get("format"), is("json"));
+	}
+
+	@Test
+	public void shouldRejectUnacceptableRequestsBeforeController() throws Exception {
+		thrown.expect(NotAcceptableException.class);
+		thrown.expectMessage("Not acceptable: yaml");
+
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").parameter("format", "yaml");
+		interceptor.before(annotation("cachedAction"), request, new MockHttpServletResponse());
+	}
+
+	@Test
+	public void shouldReplaceFutureOutputWithItsResult() throws Exception {
+		RestView<?> view = interceptor.after(annotation("cachedAction"), new RestView<>(Futures.immediateFuture("hello"), HttpServletResponse.SC_CREATED), new MockHttpServletRequest(), new RecordingHttpServletResponse());
+
+		assertThat(view.getOutput(), is((Object) "hello"));
+		assertThat(view.getStatus(), is(HttpServletResponse.SC_CREATED));
+	}
+
+	@Test
+	public void shouldNotReplaceViewsWithoutFutureOutput() throws Exception {
+		Object view = interceptor.after(annotation("cachedAction"), new RestView<Object>("hello"), new MockHttpServletRequest(), new RecordingHttpServletResponse());
+
+		assertThat(view, is(nullValue()));
+	}
+
+	@Test
+	public void shouldRespondWithGatewayTimeoutWhenFutureTimesOut() throws Exception {
+		interceptor.setTimeout(10);
+		SettableFuture<String> future = SettableFuture.create();
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		RestView<?> view = interceptor.after(annotation("cachedAction"), new RestView<>(future), new MockHttpServletRequest(), response);
+
+		assertThat(view.getStatus(), is(HttpServletResponse.SC_GATEWAY_TIMEOUT));
+		assertThat(view.getOutput(), is(instanceOf(ErrorDto.class)));
+		assertThat(future.isCancelled(), is(true));
+		assertThat(response.headerValue("Cache-Control"), is(nullValue()));
+	}
+
+	@Test
+	public void shouldRespondWithStatusOfFutureFailure() throws Exception {
+		ListenableFuture<String> future = Futures.immediateFailedFuture(new BadRequestException("Bad id"));
+		RestView<?> view = interceptor.after(annotation("cachedAction"), new RestView<>(future), new MockHttpServletRequest(), new RecordingHttpServletResponse());
+
+		assertThat(view.getStatus(), is(HttpServletResponse.SC_BAD_REQUEST));
+	}
+
+	@Test
+	public void shouldRejectRequestsOverConcurrencyLimit() throws Exception {
+		MockHttpServletRequest first = new MockHttpServletRequest().method("GET");
+		assertThat(interceptor.before(annotation("limitedAction"), first, new MockHttpServletResponse()), is(nullValue()));
+
+		RestView<?> rejected = interceptor.before(annotation("limitedAction"), new MockHttpServletRequest().method("GET"), new MockHttpServletResponse());
+		assertThat(rejected.getStatus(), is(HttpServletResponse.SC_SERVICE_UNAVAILABLE));
+
+		// Writing the first response frees its permit for the next request
+		serializeRestView(new RestView<Object>("done"), first);
+		assertThat(interceptor.before(annotation("limitedAction"), new MockHttpServletRequest().method("GET"), new MockHttpServletResponse()), is(nullValue()));
+	}
+
+	@Test
+	public void shouldReleasePermitWhenActionThrows() throws Exception {
+		MockHttpServletRequest first = new MockHttpServletRequest().method("GET");
+		assertThat(interceptor.before(annotation("limitedAction"), first, new MockHttpServletResponse()), is(nullValue()));
+
+		RestView<?> view = interceptor.exception(annotation("limitedAction"), new IllegalStateException("Intentional"), first, new MockHttpServletResponse());
+		assertThat(view.getStatus(), is(HttpServletResponse.SC_INTERNAL_SERVER_ERROR));
+		assertThat(interceptor.before(annotation("limitedAction"), new MockHttpServletRequest().method("GET"), new MockHttpServletResponse()), is(nullValue()));
+	}
+
+	@Test
+	public void shouldLimitEachAnnotatedMethodSeparately() throws Exception {
+		assertThat(annotation("limitedAction"), is(annotation("otherLimitedAction")));
+		assertThat(interceptor.before(annotation("limitedAction"), new MockHttpServletRequest().method("GET"), new MockHttpServletResponse()), is(nullValue()));
+
+		assertThat(interceptor.before(annotation("otherLimitedAction"), new MockHttpServletRequest().method("GET"), new MockHttpServletResponse()), is(nullValue()));
+	}
+
+	@Test
+	public void shouldTakeDeadlineFromRequestHeader() throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest().method("GET").header(RestActionInterceptor.DefaultDeadlineHeader, "60000");
+		interceptor.before(annotation("cachedAction"), request, new MockHttpServletResponse());
+		assertThat(RestContext.get(request).isCancelled(), is(false));
+
+		request = new MockHttpServletRequest().method("GET").header(RestActionInterceptor.DefaultDeadlineHeader, "0");
+		interceptor.before(annotation("cachedAction"), request, new MockHttpServletResponse());
+		Thread.sleep(1);
+		assertThat(RestContext.get(request).isCancelled(), is(true));
+	}
+
+	@Rest(version = FixedVersion.class)
+	public void versionedAction() {
+	}
+
+	@Rest(cacheTtl = 60)
+	public void serverCachedAction() {
+	}
+
+	@Rest(maxAge = 60, sMaxAge = 300, staleWhileRevalidate = 30, visibility = Rest.Visibility.Public)
+	public void cachedAction() {
+	}
+
+	@Rest(maxAge = 60, noStore = true)
+	public void uncachedAction() {
+	}
+
+	@Rest(maxConcurrency = 1)
+	public void limitedAction() {
+	}
+
+	@Rest(maxConcurrency = 1)
+	public void otherLimitedAction() {
+	}
+
+	public static class FixedVersion implements VersionProvider {
+		@Override
+		public String version(HttpServletRequest req) {
+			return "42";
+		}
+	}
+
+	private Rest versioned() throws NoSuchMethodException {
+		return annotation("versionedAction");
+	}
+
+	private Rest annotation(String method) throws NoSuchMethodException {
+		return getClass().getMethod(method).getAnnotation(Rest.class);
+	}
+
 	private String serializeRestView(RestView view, RestViewResolver resolver) {
-		final StringWriter responseOutput = new StringWriter();
-		MockHttpServletResponse response = new MockHttpServletResponse() {
-			@Override
-			public PrintWriter getWriter() throws IOException {
-				return new PrintWriter(responseOutput);
-			}
-		};
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
 		resolver.resolve(new MockHttpServletRequest(), response, view);
-		return responseOutput.toString();
+		return response.body();
+	}
+
+	private String serializeRestView(RestView view, HttpServletRequest request) {
+		RecordingHttpServletResponse response = new RecordingHttpServletResponse();
+		interceptor.viewResolver.resolve(request, response, view);
+		return response.body();
 	}
 }
@@ -0,0 +1,97 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.parser;
+
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class JsonRecordReaderTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	@Test
+	public void testReadNdjson() {
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.ndjson(new StringReader("{\"message\":\"one\"}\n\n{\"message\":\"two\"}\n"), MessageDto.class);
+		assertThat(reader.next().message, is("one"));
+		assertThat(reader.next().message, is("two"));
+		assertThat(reader.hasNext(), is(false));
+		assertThat(reader.getCount(), is(2));
+	}
+
+	@Test
+	public void testReadArray() {
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.array(new StringReader(" [{\"message\":\"one\"}, {\"message\":\"two\"}] "), MessageDto.class);
+		assertThat(reader.next().message, is("one"));
+		assertThat(reader.next().message, is("two"));
+		assertThat(reader.hasNext(), is(false));
+		assertThat(reader.hasNext(), is(false));
+	}
+
+	@Test
+	public void testReadBatches() {
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.ndjson(new StringReader("{\"message\":\"one\"}\n{\"message\":\"two\"}\n{\"message\":\"three\"}\n"), MessageDto.class);
+		Iterator<List<MessageDto>> batches = reader.batches(2);
+		assertThat(batches.next().size(), is(2));
+		List<MessageDto> last = batches.next();
+		assertThat(last.size(), is(1));
+		assertThat(last.get(0).message, is("three"));
+		assertThat(batches.hasNext(), is(false));
+	}
+
+	@Test
+	public void testRejectsTooManyRecords() {
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.array(new StringReader("[{},{},{}]"), MessageDto.class).setMaxRecords(2);
+		reader.next();
+		reader.next();
+		thrown.expect(BadRequestException.class);
+		reader.hasNext();
+	}
+
+	@Test
+	public void testRejectsOversizedRecord() {
+		String body = "[{\"message\":\"" + StringUtils.repeat('x', 5000) + "\"}]";
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.array(new StringReader(body), MessageDto.class).setMaxRecordSize(100);
+		thrown.expect(BadRequestException.class);
+		reader.next();
+	}
+
+	@Test
+	public void testRejectsTruncatedBody() {
+		JsonRecordReader<MessageDto> reader = JsonRecordReader.array(new StringReader("[{\"message\":\"one\"},"), MessageDto.class);
+		reader.next();
+		thrown.expect(BadRequestException.class);
+		reader.hasNext();
+	}
+
+	@Test
+	public void testRejectsBodyWhichIsNotAnArray() {
+		thrown.expect(BadRequestException.class);
+		JsonRecordReader.array(new StringReader("{\"message\":\"one\"}"), MessageDto.class).hasNext();
+	}
+}
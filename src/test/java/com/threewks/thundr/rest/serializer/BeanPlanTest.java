@@ -0,0 +1,55 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.threewks.thundr.rest.dto.ErrorDto;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class BeanPlanTest {
+
+	@Test
+	public void shouldCachePlanPerClass() {
+		assertThat(BeanPlan.forClass(ClassWithIgnoredGetter.class), is(sameInstance(BeanPlan.forClass(ClassWithIgnoredGetter.class))));
+	}
+
+	@Test
+	public void shouldOrderReadablePropertiesByNameAndExcludeIgnored() {
+		BeanPlan plan = BeanPlan.forClass(ClassWithIgnoredGetter.class);
+
+		assertThat(plan.getProperties().size(), is(2));
+		assertThat(plan.getProperties().get(0).getName(), is("children"));
+		assertThat(plan.getProperties().get(1).getName(), is("name"));
+		assertThat(plan.isIgnored("secret"), is(true));
+		assertThat(plan.isIgnored("name"), is(false));
+	}
+
+	@Test
+	public void shouldExcludeClassProperty() {
+		BeanPlan plan = BeanPlan.forClass(ErrorDto.class);
+
+		assertThat(plan.getProperty("class"), is(nullValue()));
+		assertThat(plan.getProperty("error"), is(notNullValue()));
+		assertThat((String) plan.getProperty("error").get(new ErrorDto("message")), is("message"));
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.threewks.thundr.rest.serializer.protobuf.ProtoField;
+
+import java.util.List;
+
+public class ClassWithIgnoredGetter {
+	private String name;
+	private String secret;
+	private List<ClassWithIgnoredGetter> children;
+
+	public ClassWithIgnoredGetter() { }
+
+	public ClassWithIgnoredGetter(String name, String secret) {
+		this.name = name;
+		this.secret = secret;
+	}
+
+	@ProtoField(1)
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@Ignore
+	public String getSecret() {
+		return secret;
+	}
+
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	@ProtoField(2)
+	public List<ClassWithIgnoredGetter> getChildren() {
+		return children;
+	}
+
+	public void setChildren(List<ClassWithIgnoredGetter> children) {
+		this.children = children;
+	}
+}
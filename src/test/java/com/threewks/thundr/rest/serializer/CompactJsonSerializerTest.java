@@ -0,0 +1,169 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.json.CompactJsonSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.fail;
+
+public class CompactJsonSerializerTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private CompactJsonSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new CompactJsonSerializer();
+	}
+
+	@Test
+	public void testMarshalRows() {
+		String json = serializer.marshal(Arrays.asList(new VersionedDto("one"), null, new VersionedDto("two")));
+		assertThat(json, is("{\"fields\":[\"name\",\"version\"],\"rows\":[[\"one\",0],[\"two\",0]]}"));
+	}
+
+	@Test
+	public void testMarshalColumns() {
+		Map<String, String> options = ImmutableMap.of(CompactJsonSerializer.OPTION_LAYOUT, CompactJsonSerializer.LayoutColumns);
+		String json = serializer.marshal(Arrays.asList(new VersionedDto("one"), new VersionedDto("two")).iterator(), options);
+		assertThat(json, is("{\"fields\":[\"name\",\"version\"],\"columns\":[[\"one\",\"two\"],[0,0]]}"));
+	}
+
+	@Test
+	public void testMarshalNullValuesAndDateTimes() {
+		DateTime dateTime = new DateTime(2014, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC);
+		String json = serializer.marshal(new ClassWithDateTimeGetter[] { new ClassWithDateTimeGetter(dateTime), new ClassWithDateTimeGetter() });
+		assertThat(json, is("{\"fields\":[\"dateTime\"],\"rows\":[[\"2014-01-02T03:04:05.006Z\"],[null]]}"));
+	}
+
+	@Test
+	public void testMarshalOtherOutputAsPlainJson() {
+		assertThat(serializer.marshal(new MessageDto("hello")), is("{\"message\":\"hello\"}"));
+		assertThat(serializer.marshal(Arrays.asList(1, 2)), is("[1,2]"));
+		assertThat(serializer.marshal(Collections.emptyList()), is("{\"fields\":[],\"rows\":[]}"));
+	}
+
+	@Test
+	public void testMarshalWithCallback() {
+		String json = serializer.marshal(Arrays.asList(new MessageDto("hello")), ImmutableMap.of(CompactJsonSerializer.OPTION_CALLBACK, "cb"));
+		assertThat(json, is("cb({\"fields\":[\"message\"],\"rows\":[[\"hello\"]]});"));
+	}
+
+	@Test
+	public void testMarshalRejectsElementsOfDifferentTypes() {
+		thrown.expect(RestException.class);
+		serializer.marshal(Arrays.asList(new VersionedDto("one"), new MessageDto("two")));
+	}
+
+	@Test
+	public void testMarshalRowsHasWrittenEarlierRowsWhenRejectingAnElement() throws IOException {
+		serializer.setFlushInterval(1);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			serializer.marshal(Arrays.asList(new VersionedDto("one"), new MessageDto("two")), null, output, Charsets.UTF_8);
+			fail("Expected a RestException");
+		} catch (RestException e) {
+			assertThat(output.toString("UTF-8"), is("{\"fields\":[\"name\",\"version\"],\"rows\":[[\"one\",0]"));
+		}
+	}
+
+	@Test
+	public void testMarshalColumnsRejectsElementsOfDifferentTypesBeforeWriting() throws IOException {
+		serializer.setFlushInterval(1);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Map<String, String> options = ImmutableMap.of(CompactJsonSerializer.OPTION_LAYOUT, CompactJsonSerializer.LayoutColumns);
+		try {
+			serializer.marshal(Arrays.asList(new VersionedDto("one"), new MessageDto("two")), options, output, Charsets.UTF_8);
+			fail("Expected a RestException");
+		} catch (RestException e) {
+			assertThat(output.size(), is(0));
+		}
+	}
+
+	@Test
+	public void testUnmarshalRows() {
+		String json = "{\"fields\":[\"dateTime\",\"unknown\"],\"rows\":[[\"2014-01-02T03:04:05.006Z\",1],[null,2]]}";
+		ClassWithDateTimeGetter[] result = serializer.unmarshal(ClassWithDateTimeGetter[].class, json);
+		assertThat(result.length, is(2));
+		assertThat(result[0].getDateTime().getMillis(), is(new DateTime(2014, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC).getMillis()));
+		assertThat(result[1].getDateTime(), is(nullValue()));
+	}
+
+	@Test
+	public void testUnmarshalColumns() {
+		List<MessageDto> result = serializer.unmarshalList(MessageDto.class, new StringReader("{\"fields\":[\"message\"],\"columns\":[[\"one\",\"two\"]]}"));
+		assertThat(result.size(), is(2));
+		assertThat(result.get(0).getMessage(), is("one"));
+		assertThat(result.get(1).getMessage(), is("two"));
+	}
+
+	@Test
+	public void testRoundTrip() {
+		List<MessageDto> messages = Arrays.asList(new MessageDto("one"), new MessageDto("two"));
+		MessageDto[] result = serializer.unmarshal(MessageDto[].class, serializer.marshal(messages));
+		assertThat(result[1].getMessage(), is("two"));
+	}
+
+	@Test
+	public void testRoundTripWithDateGetter() {
+		ClassWithDateGetter[] objects = { new ClassWithDateGetter(new Date(1373463478340L), 12.5), new ClassWithDateGetter(new Date(0), 3) };
+		String json = serializer.marshal(Arrays.asList(objects));
+		assertThat(json, containsString("\"time\":1373463478340"));
+
+		for (String layout : Arrays.asList(CompactJsonSerializer.LayoutRows, CompactJsonSerializer.LayoutColumns)) {
+			json = serializer.marshal(Arrays.asList(objects), ImmutableMap.of(CompactJsonSerializer.OPTION_LAYOUT, layout));
+			ClassWithDateGetter[] result = serializer.unmarshal(ClassWithDateGetter[].class, json);
+			assertThat(result.length, is(2));
+			assertThat(result[0].getDate(), is(objects[0].getDate()));
+			assertThat(result[0].getAmount(), is(12.5));
+			assertThat(result[1].getDate(), is(objects[1].getDate()));
+			assertThat(result[1].getAmount(), is(3.0));
+		}
+	}
+
+	@Test
+	public void testUnmarshalRejectsRowsBeforeFields() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto[].class, "{\"rows\":[[\"one\"]],\"fields\":[\"message\"]}");
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.UnsupportedMediaTypeException;
+import com.threewks.thundr.rest.serializer.csv.CsvSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class CsvSerializerTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private CsvSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new CsvSerializer();
+	}
+
+	@Test
+	public void testMarshalWritesHeaderAndOneRowPerElement() {
+		String csv = serializer.marshal(Arrays.asList(new VersionedDto("one"), null, new VersionedDto("two, \"2\"\nlines")));
+		assertThat(csv, is("name,version\r\none,0\r\n\"two, \"\"2\"\"\nlines\",0\r\n"));
+	}
+
+	@Test
+	public void testMarshalSkipsIgnoredAndNonScalarProperties() {
+		ClassWithIgnoredGetter object = new ClassWithIgnoredGetter("name", "secret");
+		object.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "secret")));
+		assertThat(serializer.marshal(Arrays.asList(object).iterator()), is("name\r\nname\r\n"));
+	}
+
+	@Test
+	public void testMarshalNullsAndDateTimes() {
+		ClassWithDateTimeGetter[] rows = { new ClassWithDateTimeGetter(new DateTime(2014, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC)), new ClassWithDateTimeGetter() };
+		assertThat(serializer.marshal(rows), is("dateTime\r\n2014-01-02T03:04:05.006Z\r\n\r\n"));
+	}
+
+	@Test
+	public void testMarshalMaps() {
+		String csv = serializer.marshal(Arrays.asList(ImmutableMap.of("id", 1, "name", "one"), ImmutableMap.of("name", "two")));
+		assertThat(csv, is("id,name\r\n1,one\r\n,two\r\n"));
+	}
+
+	@Test
+	public void testMarshalSingleObjectAndEmptyOutput() {
+		assertThat(serializer.marshal(new MessageDto("hello")), is("message\r\nhello\r\n"));
+		assertThat(serializer.marshal(Collections.emptyList()), is(""));
+		assertThat(serializer.marshal(null), is(""));
+	}
+
+	@Test
+	public void testMarshalToStream() throws IOException {
+		serializer.setFlushInterval(1);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(Arrays.asList(new MessageDto("caf\u00e9")), null, out, Charsets.UTF_8);
+		assertThat(new String(out.toByteArray(), Charsets.UTF_8), is("message\r\ncaf\u00e9\r\n"));
+	}
+
+	@Test
+	public void testMarshalRejectsRowsOfDifferentTypes() {
+		thrown.expect(RestException.class);
+		thrown.expectMessage("Cannot write a " + MessageDto.class.getName() + " as a CSV row of " + VersionedDto.class.getName());
+		serializer.marshal(Arrays.asList(new VersionedDto("one"), new MessageDto("two")));
+	}
+
+	@Test
+	public void testMarshalEscapesCellsWhichSpreadsheetsRunAsFormulas() {
+		String csv = serializer.marshal(Arrays.asList(ImmutableMap.of("name", "=HYPERLINK(\"http://x\")", "@sum", -1), ImmutableMap.of("name", "+1", "@sum", 2)));
+		assertThat(csv, is("name,'@sum\r\n\"'=HYPERLINK(\"\"http://x\"\")\",-1\r\n'+1,2\r\n"));
+
+		serializer.setFormulaEscaping(false);
+		assertThat(serializer.marshal(new MessageDto("-1")), is("message\r\n-1\r\n"));
+	}
+
+	@Test
+	public void testUnmarshalIsAnUnsupportedMediaType() {
+		thrown.expect(UnsupportedMediaTypeException.class);
+		serializer.unmarshal(MessageDto.class, "message\r\nhello\r\n");
+	}
+
+	@Test
+	public void testMarshalRejectsScalars() {
+		thrown.expect(RestException.class);
+		serializer.marshal(Arrays.asList("one", "two"));
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.serializer.gson.GsonSerializer;
+import com.threewks.thundr.rest.serializer.json.JsonSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.format.ISODateTimeFormat;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class GsonSerializerTest {
+
+	private static String json = "{\"message\":\"hello\"}";
+	private static String jsonp = "test(" + json + ");";
+
+	private GsonSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new GsonSerializer();
+	}
+
+	@Test
+	public void testMarshal() {
+		assertThat(serializer.marshal(new MessageDto("hello")), is(json));
+	}
+
+	@Test
+	public void testMarshalWithCallbackOption() {
+		Map<String, String> options = Maps.newHashMap();
+		options.put("callback", "test");
+
+		assertThat(serializer.marshal(new MessageDto("hello"), options), is(jsonp));
+	}
+
+	@Test
+	public void testMarshalToStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(new MessageDto("hello"), null, out, Charsets.UTF_8);
+		assertThat(new String(out.toByteArray(), Charsets.UTF_8), is(json));
+	}
+
+	@Test
+	public void testMarshalSkipsIgnoredAndNullProperties() {
+		ClassWithIgnoredGetter parent = new ClassWithIgnoredGetter("parent", "hidden");
+		parent.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "hidden"), new ClassWithIgnoredGetter(null, null)));
+
+		assertThat(serializer.marshal(parent), is("{\"children\":[{\"name\":\"child\"},{}],\"name\":\"parent\"}"));
+	}
+
+	@Test
+	public void testMarshalMapSkipsNullValues() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		map.put("message", "hello");
+		map.put("missing", null);
+
+		assertThat(serializer.marshal(map), is(json));
+	}
+
+	@Test
+	public void testMarshalAndUnmarshalWithDateTimeGetter() {
+		DateTime dateTime = ISODateTimeFormat.dateTimeParser().withOffsetParsed().parseDateTime("2013-07-10T15:37:58.340+02:00");
+		ClassWithDateTimeGetter myObject = new ClassWithDateTimeGetter(dateTime);
+
+		String marshaled = serializer.marshal(myObject);
+		assertThat(marshaled, is("{\"dateTime\":\"2013-07-10T15:37:58.340+02:00\"}"));
+
+		ClassWithDateTimeGetter unmarshaled = serializer.unmarshal(ClassWithDateTimeGetter.class, marshaled);
+		assertThat(unmarshaled, equalTo(myObject));
+	}
+
+	@Test
+	public void testMarshalDatesNumbersAndJodaTypesAsJsonSerializerDoes() {
+		ClassWithDateGetter myObject = new ClassWithDateGetter(new Date(1373463478340L), 1.0);
+		myObject.setDay(new LocalDate(2013, 7, 10));
+
+		assertThat(serializer.marshal(myObject), is(new JsonSerializer().marshal(myObject)));
+		assertThat(serializer.marshal(Arrays.asList(1.0, 0.25, 1.5f, 1e20)), is(new JsonSerializer().marshal(Arrays.asList(1.0, 0.25, 1.5f, 1e20))));
+		assertThat(serializer.marshal(new ClassWithDateGetter(null, 2.0)), is("{\"amount\":2}"));
+	}
+
+	@Test
+	public void testMarshalAndUnmarshalWithDateGetter() {
+		ClassWithDateGetter myObject = new ClassWithDateGetter(new Date(1373463478340L), 0.25);
+
+		ClassWithDateGetter unmarshaled = serializer.unmarshal(ClassWithDateGetter.class, serializer.marshal(myObject));
+		assertThat(unmarshaled.getDate(), is(myObject.getDate()));
+		assertThat(unmarshaled.getAmount(), is(0.25));
+		assertThat(serializer.unmarshal(ClassWithDateGetter.class, "{\"date\":1373463478340}").getDate(), is(myObject.getDate()));
+	}
+
+	@Test
+	public void testUnmarshalSkipsIgnoredProperties() {
+		ClassWithIgnoredGetter unmarshaled = serializer.unmarshal(ClassWithIgnoredGetter.class,
+				"{\"name\":\"parent\",\"secret\":\"hidden\",\"children\":[{\"name\":\"child\"}]}");
+
+		assertThat(unmarshaled.getName(), is("parent"));
+		assertThat(unmarshaled.getSecret(), is(nullValue()));
+		assertThat(unmarshaled.getChildren().get(0).getName(), is("child"));
+	}
+}
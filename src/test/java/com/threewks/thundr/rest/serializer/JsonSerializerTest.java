@@ -17,22 +17,30 @@
  */
 package com.threewks.thundr.rest.serializer;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
 import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.serializer.json.JsonCodecs;
 import com.threewks.thundr.rest.serializer.json.JsonSerializer;
+import net.sf.json.JSONException;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
 
 public class JsonSerializerTest {
 
@@ -81,6 +89,16 @@ public class JsonSerializerTest {
 		assertThat(result, is(jsonp));
 	}
 
+	@Test
+	public void testMarshalToStreamWithCallbackOption() throws IOException {
+		Map<String, String> options = Maps.newHashMap();
+		options.put("callback", "test");
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(new MessageDto("hello"), options, out, Charsets.UTF_8);
+		assertThat(new String(out.toByteArray(), Charsets.UTF_8), is(jsonp));
+	}
+
 	@Test
 	public void testUnmarshal() {
 		MessageDto message = serializer.unmarshal(MessageDto.class, json);
@@ -119,4 +137,94 @@ public class JsonSerializerTest {
         assertThat(marshaled, is("[\"one\",\"two\",\"three\"]"));
     }
 
+	@Test
+	public void testMarshalSkipsIgnoredAndNullProperties() {
+		ClassWithIgnoredGetter parent = new ClassWithIgnoredGetter("parent", "hidden");
+		parent.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "hidden"), new ClassWithIgnoredGetter(null, null)));
+
+		String marshaled = serializer.marshal(parent);
+		assertThat(marshaled, is("{\"children\":[{\"name\":\"child\"},{}],\"name\":\"parent\"}"));
+	}
+
+	@Test
+	public void testMarshalEscapesStrings() {
+		String marshaled = serializer.marshal(new MessageDto("say \"hi\"\n</script>\u0001"));
+		assertThat(marshaled, is("{\"message\":\"say \\\"hi\\\"\\n<\\/script>\\u0001\"}"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void testMarshalRejectsCycles() {
+		ClassWithIgnoredGetter parent = new ClassWithIgnoredGetter("parent", null);
+		parent.setChildren(Arrays.asList(parent));
+		serializer.marshal(parent);
+	}
+
+	@Test
+	public void testMarshalAndUnmarshalWithGeneratedCodec() {
+		assertThat(JsonCodecs.forClass(PrecompiledDto.class), is(notNullValue()));
+
+		PrecompiledDto dto = new PrecompiledDto("precompiled", 3, true);
+		dto.setSecret("hidden");
+		dto.setRatio(0.5);
+		dto.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "hidden")));
+
+		String marshaled = serializer.marshal(dto);
+		assertThat(marshaled, is("{\"active\":true,\"children\":[{\"name\":\"child\"}],\"count\":3,\"name\":\"precompiled\",\"ratio\":0.5}"));
+
+		PrecompiledDto unmarshaled = serializer.unmarshal(PrecompiledDto.class, marshaled);
+		assertThat(unmarshaled.getName(), is("precompiled"));
+		assertThat(unmarshaled.getCount(), is(3));
+		assertThat(unmarshaled.isActive(), is(true));
+		assertThat(unmarshaled.getSecret(), is((String) null));
+		assertThat(unmarshaled.getChildren().get(0).getName(), is("child"));
+	}
+
+	@Test
+	public void testMarshalReusesCachedFragmentUntilVersionChanges() {
+		VersionedDto dto = new VersionedDto("first");
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("a", dto);
+		response.put("b", dto);
+
+		assertThat(serializer.marshal(response), is("{\"a\":{\"name\":\"first\",\"version\":0},\"b\":{\"name\":\"first\",\"version\":0}}"));
+
+		dto.setName("second");
+		assertThat(serializer.marshal(dto), is("{\"name\":\"second\",\"version\":1}"));
+	}
+
+	@Test(expected = JSONException.class)
+	public void testMarshalRejectsCyclesThroughCachedFragments() {
+		serializer.marshal(new SelfReferencingDto());
+	}
+
+	@Test
+	public void testMarshalIteratorLazily() {
+		Iterator<String> iterator = Arrays.asList("one", "two", "three").iterator();
+		assertThat(serializer.marshal(iterator), is("[\"one\",\"two\",\"three\"]"));
+	}
+
+	@Test
+	public void testMarshalToStreamFlushesIteratorsAtInterval() throws IOException {
+		final int[] flushes = { 0 };
+		ByteArrayOutputStream out = new ByteArrayOutputStream() {
+			@Override
+			public void flush() {
+				flushes[0]++;
+			}
+		};
+
+		serializer.setFlushInterval(2);
+		serializer.marshal(Arrays.asList(1, 2, 3, 4, 5).iterator(), null, out, Charsets.UTF_8);
+
+		assertThat(new String(out.toByteArray(), Charsets.UTF_8), is("[1,2,3,4,5]"));
+		// Twice during the array and once at the end
+		assertThat(flushes[0], is(3));
+	}
+
+	@Cacheable
+	public static class SelfReferencingDto {
+		public List<Object> getSelf() {
+			return Arrays.<Object>asList(this);
+		}
+	}
 }
@@ -0,0 +1,155 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.collect.ImmutableMap;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.msgpack.MessagePackSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class MessagePackSerializerTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private MessagePackSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new MessagePackSerializer();
+	}
+
+	@Test
+	public void testMarshal() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(new MessageDto("hello"), null, out, null);
+
+		// {"message":"hello"}: a one entry fixmap holding two fixstrs
+		byte[] expected = new byte[] { (byte) 0x81, (byte) 0xa7, 'm', 'e', 's', 's', 'a', 'g', 'e', (byte) 0xa5, 'h', 'e', 'l', 'l', 'o' };
+		assertThat(out.toByteArray(), is(expected));
+	}
+
+	@Test
+	public void testMarshalSkipsIgnoredAndNullProperties() {
+		ClassWithIgnoredGetter object = new ClassWithIgnoredGetter("name", "secret");
+		Map<?, ?> map = serializer.unmarshal(Map.class, serializer.marshal(object));
+		assertThat(map, is((Map) ImmutableMap.of("name", "name")));
+	}
+
+	@Test
+	public void testMarshalAndUnmarshalWithDateTimeGetter() {
+		ClassWithDateTimeGetter object = new ClassWithDateTimeGetter();
+		DateTime dateTime = new DateTime(2014, 1, 2, 3, 4, 5, 6, DateTimeZone.forOffsetHours(10));
+		object.setDateTime(dateTime);
+
+		String msgpack = serializer.marshal(object);
+		assertThat(serializer.unmarshal(Map.class, msgpack).get("dateTime"), is((Object) dateTime.toString()));
+		assertThat(serializer.unmarshal(ClassWithDateTimeGetter.class, msgpack).getDateTime().toString(), is(dateTime.toString()));
+	}
+
+	@Test
+	public void testUnmarshal() {
+		MessageDto message = serializer.unmarshal(MessageDto.class, serializer.marshal(new MessageDto("hello")));
+		assertThat(message.message, is("hello"));
+	}
+
+	@Test
+	public void testUnmarshalFromStream() {
+		MessageDto message = serializer.unmarshal(MessageDto.class, new ByteArrayInputStream(bytes(ImmutableMap.of("message", "hello", "unknown", Arrays.asList(1, 2)))));
+		assertThat(message.message, is("hello"));
+	}
+
+	@Test
+	public void testMarshalCollectionsAndNulls() {
+		List<?> list = serializer.unmarshal(List.class, serializer.marshal(Arrays.asList(1, "two", null, 4.5, true)));
+		assertThat(list, is((List) Arrays.asList(1L, "two", null, 4.5, true)));
+		assertThat(serializer.unmarshal(MessageDto.class, serializer.marshal(null)), is(nullValue()));
+	}
+
+	@Test
+	public void testUnmarshalRejectsMalformedInput() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto.class, new ByteArrayInputStream(new byte[] { (byte) 0x81, (byte) 0xa7, 'm', 'e', 's', 's', 'a', 'g', 'e', 5 }));
+	}
+
+	@Test
+	public void testUnmarshalRejectsLengthsOverTheMaximum() {
+		serializer.setMaxLength(1000);
+		thrown.expect(BadRequestException.class);
+		// An array32 header declaring 2^31 - 1 elements, with none following
+		serializer.unmarshal(List.class, new ByteArrayInputStream(new byte[] { (byte) 0xdd, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xff }));
+	}
+
+	@Test
+	public void testUnmarshalRejectsTruncatedArrayWithoutAllocatingItsDeclaredLength() {
+		thrown.expect(BadRequestException.class);
+		// An array32 header declaring a million ints, followed by just one
+		serializer.unmarshal(int[].class, new ByteArrayInputStream(new byte[] { (byte) 0xdd, 0, 0x0f, 0x42, 0x40, 1 }));
+	}
+
+	@Test
+	public void testUnmarshalBinaryInChunks() {
+		byte[] payload = new byte[20000];
+		payload[0] = 1;
+		payload[19999] = 2;
+		assertThat(serializer.unmarshal(byte[].class, new ByteArrayInputStream(bytes(payload))), is(payload));
+	}
+
+	@Test
+	public void testUnmarshalRejectsInvalidNumericMapKey() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(NumberKeyedDto.class, new ByteArrayInputStream(bytes(ImmutableMap.of("names", ImmutableMap.of("one", "a")))));
+	}
+
+	@Test
+	public void testUnmarshalRejectsDeeplyNestedArrays() {
+		// A hundred thousand single element arrays, each holding the next, around a nil
+		byte[] nested = new byte[100001];
+		Arrays.fill(nested, (byte) 0x91);
+		nested[nested.length - 1] = (byte) 0xc0;
+
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(List.class, new ByteArrayInputStream(nested));
+	}
+
+	private byte[] bytes(Object object) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			serializer.marshal(object, null, out, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+}
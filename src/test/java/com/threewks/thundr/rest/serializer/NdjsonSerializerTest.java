@@ -0,0 +1,83 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.base.Charsets;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.json.NdjsonSerializer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class NdjsonSerializerTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private NdjsonSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new NdjsonSerializer();
+	}
+
+	@Test
+	public void testMarshalWritesOneLinePerElement() {
+		String ndjson = serializer.marshal(Arrays.asList(new MessageDto("one"), new MessageDto("two\nlines")));
+		assertThat(ndjson, is("{\"message\":\"one\"}\n{\"message\":\"two\\nlines\"}\n"));
+	}
+
+	@Test
+	public void testMarshalIteratorsAndArrays() {
+		assertThat(serializer.marshal(Arrays.asList(1, 2, 3).iterator()), is("1\n2\n3\n"));
+		assertThat(serializer.marshal(new String[] { "a", "b" }), is("\"a\"\n\"b\"\n"));
+	}
+
+	@Test
+	public void testMarshalSingleObject() {
+		assertThat(serializer.marshal(new MessageDto("hello")), is("{\"message\":\"hello\"}\n"));
+	}
+
+	@Test
+	public void testMarshalToStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.setFlushInterval(1);
+		serializer.marshal(Arrays.asList(new MessageDto("one"), new MessageDto("two")), null, out, Charsets.UTF_8);
+		assertThat(new String(out.toByteArray(), Charsets.UTF_8), is("{\"message\":\"one\"}\n{\"message\":\"two\"}\n"));
+	}
+
+	@Test
+	public void testUnmarshal() {
+		MessageDto message = serializer.unmarshal(MessageDto.class, "{\"message\":\"hello\"}\n");
+		assertThat(message.message, is("hello"));
+	}
+
+	@Test
+	public void testUnmarshalRejectsMultipleRecords() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto.class, "{\"message\":\"one\"}\n{\"message\":\"two\"}\n");
+	}
+}
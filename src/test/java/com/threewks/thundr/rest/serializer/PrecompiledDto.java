@@ -0,0 +1,100 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import org.joda.time.DateTime;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.List;
+
+@Precompiled
+@XmlRootElement(name = "precompiled")
+public class PrecompiledDto {
+	private String name;
+	private int count;
+	private boolean active;
+	private double ratio;
+	private DateTime created;
+	private String secret;
+	private List<ClassWithIgnoredGetter> children;
+
+	public PrecompiledDto() { }
+
+	public PrecompiledDto(String name, int count, boolean active) {
+		this.name = name;
+		this.count = count;
+		this.active = active;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+
+	public double getRatio() {
+		return ratio;
+	}
+
+	public void setRatio(double ratio) {
+		this.ratio = ratio;
+	}
+
+	public DateTime getCreated() {
+		return created;
+	}
+
+	public void setCreated(DateTime created) {
+		this.created = created;
+	}
+
+	@Ignore
+	public String getSecret() {
+		return secret;
+	}
+
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	public List<ClassWithIgnoredGetter> getChildren() {
+		return children;
+	}
+
+	public void setChildren(List<ClassWithIgnoredGetter> children) {
+		this.children = children;
+	}
+}
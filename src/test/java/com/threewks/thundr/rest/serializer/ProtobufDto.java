@@ -0,0 +1,103 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.serializer.protobuf.ProtoField;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Map;
+
+public class ProtobufDto {
+	public enum Status {
+		Active,
+		Closed
+	}
+
+	private long id;
+	private String name;
+	private Status status;
+	private DateTime created;
+	private List<Integer> scores;
+	private Map<String, Integer> counts;
+	private MessageDto child;
+
+	@ProtoField(1)
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	@ProtoField(2)
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@ProtoField(3)
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	@ProtoField(4)
+	public DateTime getCreated() {
+		return created;
+	}
+
+	public void setCreated(DateTime created) {
+		this.created = created;
+	}
+
+	@ProtoField(5)
+	public List<Integer> getScores() {
+		return scores;
+	}
+
+	public void setScores(List<Integer> scores) {
+		this.scores = scores;
+	}
+
+	@ProtoField(6)
+	public Map<String, Integer> getCounts() {
+		return counts;
+	}
+
+	public void setCounts(Map<String, Integer> counts) {
+		this.counts = counts;
+	}
+
+	@ProtoField(7)
+	public MessageDto getChild() {
+		return child;
+	}
+
+	public void setChild(MessageDto child) {
+		this.child = child;
+	}
+}
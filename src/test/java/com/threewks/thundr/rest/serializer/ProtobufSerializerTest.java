@@ -0,0 +1,197 @@
+/*
+ * This file is a component of thundr, a software library from 3wks.
+ * Read more: http://www.3wks.com.au/thundr
+ * Copyright (C) 2013 3wks, <thundr@3wks.com.au>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.threewks.thundr.rest.serializer;
+
+import com.google.common.collect.ImmutableMap;
+import com.threewks.thundr.rest.RestException;
+import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
+import com.threewks.thundr.rest.serializer.protobuf.ProtoField;
+import com.threewks.thundr.rest.serializer.protobuf.ProtobufSchema;
+import com.threewks.thundr.rest.serializer.protobuf.ProtobufSerializer;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class ProtobufSerializerTest {
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
+	private ProtobufSerializer serializer;
+
+	@Before
+	public void setup() {
+		serializer = new ProtobufSerializer();
+	}
+
+	@Test
+	public void testMarshal() throws IOException {
+		// message is field 1, so its tag is (1 << 3) | 2
+		byte[] expected = new byte[] { 0x0a, 5, 'h', 'e', 'l', 'l', 'o' };
+		assertThat(bytes(new MessageDto("hello")), is(expected));
+	}
+
+	@Test
+	public void testMarshalAndUnmarshal() {
+		ProtobufDto dto = new ProtobufDto();
+		dto.setId(-5);
+		dto.setName("order");
+		dto.setStatus(ProtobufDto.Status.Closed);
+		dto.setCreated(new DateTime(2014, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC));
+		dto.setScores(Arrays.asList(1, -2, 300));
+		dto.setCounts(ImmutableMap.of("a", 1, "b", 2));
+		dto.setChild(new MessageDto("hello"));
+
+		ProtobufDto result = serializer.unmarshal(ProtobufDto.class, serializer.marshal(dto));
+		assertThat(result.getId(), is(-5L));
+		assertThat(result.getName(), is("order"));
+		assertThat(result.getStatus(), is(ProtobufDto.Status.Closed));
+		assertThat(result.getCreated().toString(), is("2014-01-02T03:04:05.006Z"));
+		assertThat(result.getScores(), is(Arrays.asList(1, -2, 300)));
+		assertThat(result.getCounts(), is((Object) ImmutableMap.of("a", 1, "b", 2)));
+		assertThat(result.getChild().getMessage(), is("hello"));
+	}
+
+	@Test
+	public void testMarshalSkipsIgnoredAndNullProperties() {
+		ClassWithIgnoredGetter object = new ClassWithIgnoredGetter("name", "secret");
+		object.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "secret"), null));
+
+		ClassWithIgnoredGetter result = serializer.unmarshal(ClassWithIgnoredGetter.class, serializer.marshal(object));
+		assertThat(result.getName(), is("name"));
+		assertThat(result.getSecret(), is(nullValue()));
+		assertThat(result.getChildren().size(), is(1));
+		assertThat(result.getChildren().get(0).getName(), is("child"));
+		assertThat(result.getChildren().get(0).getChildren(), is(nullValue()));
+	}
+
+	@Test
+	public void testUnmarshalAcceptsUnpackedRepeatedNumbersAndSkipsUnknownFields() {
+		// scores (5) as two unpacked sint32s, then an unknown field 15 holding the varint 1
+		byte[] bytes = new byte[] { 0x28, 2, 0x28, 3, 0x78, 1 };
+		ProtobufDto result = serializer.unmarshal(ProtobufDto.class, new ByteArrayInputStream(bytes));
+		assertThat(result.getScores(), is(Arrays.asList(1, -2)));
+	}
+
+	@Test
+	public void testMarshalCollectionAsDelimitedMessages() {
+		byte[] bytes = bytes(Arrays.asList(new MessageDto("one"), null, new MessageDto("two")));
+		List<MessageDto> messages = serializer.unmarshalDelimited(MessageDto.class, new ByteArrayInputStream(bytes));
+		assertThat(messages.size(), is(2));
+		assertThat(messages.get(0).getMessage(), is("one"));
+		assertThat(messages.get(1).getMessage(), is("two"));
+	}
+
+	@Test
+	public void testSchema() {
+		String expected = "syntax = \"proto3\";\n" +
+				"\n" +
+				"package com.threewks.thundr.rest.serializer;\n" +
+				"\n" +
+				"message ProtobufDto {\n" +
+				"  sint64 id = 1;\n" +
+				"  string name = 2;\n" +
+				"  string status = 3;\n" +
+				"  string created = 4;\n" +
+				"  repeated sint32 scores = 5;\n" +
+				"  map<string, sint32> counts = 6;\n" +
+				"  MessageDto child = 7;\n" +
+				"}\n" +
+				"\n" +
+				"message MessageDto {\n" +
+				"  string message = 1;\n" +
+				"}\n";
+		assertThat(ProtobufSchema.generate(ProtobufDto.class), is(expected));
+	}
+
+	@Test
+	public void testMarshalRejectsDuplicateFieldNumbers() {
+		thrown.expect(RestException.class);
+		thrown.expectMessage("Properties first and second of " + DuplicateNumbers.class.getName() + " both have protobuf field number 1");
+		serializer.marshal(new DuplicateNumbers());
+	}
+
+	@Test
+	public void testSchemaRejectsPropertiesWithoutFieldNumbers() {
+		thrown.expect(RestException.class);
+		thrown.expectMessage("Property dateTime of " + ClassWithDateTimeGetter.class.getName() + " has no @ProtoField");
+		ProtobufSchema.generate(ClassWithDateTimeGetter.class);
+	}
+
+	@Test
+	public void testMarshalRejectsValuesWhichAreNotMessages() {
+		thrown.expect(RestException.class);
+		serializer.marshal("hello");
+	}
+
+	@Test
+	public void testUnmarshalRejectsMalformedInput() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto.class, new ByteArrayInputStream(new byte[] { 0x0a, 5, 'h', 'e' }));
+	}
+
+	@Test
+	public void testUnmarshalMapEntriesWithoutKeyOrValueUseDefaults() {
+		// counts (6) entries as a proto3 encoder writes {"a": 0} and {"": 5}, leaving out the default value and key
+		byte[] bytes = new byte[] { 0x32, 3, 0x0a, 1, 'a', 0x32, 2, 0x10, 10 };
+		ProtobufDto result = serializer.unmarshal(ProtobufDto.class, new ByteArrayInputStream(bytes));
+		assertThat(result.getCounts(), is((Object) ImmutableMap.of("a", 0, "", 5)));
+	}
+
+	@Test
+	public void testUnmarshalRejectsInvalidNumericMapKey() {
+		thrown.expect(BadRequestException.class);
+		// names (1) holding the entry {"one": "x"}
+		serializer.unmarshal(NumberKeyedDto.class, new ByteArrayInputStream(new byte[] { 0x0a, 8, 0x0a, 3, 'o', 'n', 'e', 0x12, 1, 'x' }));
+	}
+
+	private byte[] bytes(Object object) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			serializer.marshal(object, null, out, null);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+
+	public static class DuplicateNumbers {
+		@ProtoField(1)
+		public String getFirst() {
+			return "first";
+		}
+
+		@ProtoField(1)
+		public String getSecond() {
+			return "second";
+		}
+	}
+}
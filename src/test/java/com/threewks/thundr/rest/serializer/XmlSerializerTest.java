@@ -18,19 +18,32 @@
 package com.threewks.thundr.rest.serializer;
 
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
+import com.threewks.thundr.rest.RestException;
 import com.threewks.thundr.rest.dto.MessageDto;
+import com.threewks.thundr.rest.exception.BadRequestException;
 import com.threewks.thundr.rest.serializer.xml.XmlSerializer;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExpectedException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Map;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertEquals;
 
 public class XmlSerializerTest {
@@ -38,6 +51,9 @@ public class XmlSerializerTest {
 	private static String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<messages><message>hello</message></messages>";
 	private XmlSerializer serializer;
 
+	@Rule
+	public ExpectedException thrown = ExpectedException.none();
+
 	@Before
 	public void setup() {
 		serializer = new XmlSerializer();
@@ -73,9 +89,116 @@ public class XmlSerializerTest {
 		assertThat(unmarshaled, equalTo(myObject));
 	}
 
+	@Test
+	public void testMarshalAndUnmarshalWithDateGetter() {
+		ClassWithDateGetter object = new ClassWithDateGetter(new Date(1373463478340L), 12.5);
+
+		String marshaled = serializer.marshal(object);
+		assertThat(marshaled, containsString("<time>1373463478340</time>"));
+
+		ClassWithDateGetter unmarshaled = serializer.unmarshal(ClassWithDateGetter.class, marshaled);
+		assertThat(unmarshaled.getDate(), is(object.getDate()));
+		assertThat(unmarshaled.getAmount(), is(12.5));
+	}
+
+	@Test
+	public void testUnmarshalDateFromText() {
+		ClassWithDateGetter unmarshaled = serializer.unmarshal(ClassWithDateGetter.class, "<object><date>1373463478340</date></object>");
+		assertThat(unmarshaled.getDate(), is(new Date(1373463478340L)));
+	}
+
+	@Test
+	public void testMarshalToStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(new MessageDto("hello"), null, out, Charsets.UTF_8);
+		assertEquals(xml, new String(out.toByteArray(), Charsets.UTF_8));
+	}
+
+	@Test
+	public void testMarshalNestedBeansAndCollections() {
+		ClassWithIgnoredGetter object = new ClassWithIgnoredGetter("name", "secret");
+		object.setChildren(Arrays.asList(new ClassWithIgnoredGetter("child", "secret"), null));
+
+		String result = serializer.marshal(object, Collections.singletonMap("rootElementName", "root"));
+		assertEquals("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root><children><element><name>child</name></element><element json_null=\"true\"/></children>"
+				+ "<name>name</name></root>", result);
+	}
+
+	@Test
+	public void testMarshalEscapesText() {
+		String result = serializer.marshal(new MessageDto("a<b>&c\r"));
+		assertEquals(xml.replace("hello", "a&lt;b&gt;&amp;c&#x0D;"), result);
+	}
+
+	@Test
+	public void testMarshalToStreamWritesUnencodableCharactersAsReferences() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.marshal(new MessageDto("\u20ac\u00e9"), null, out, Charsets.ISO_8859_1);
+		assertEquals(xml.replace("UTF-8", "ISO-8859-1").replace("hello", "&#x20AC;\u00e9"), new String(out.toByteArray(), Charsets.ISO_8859_1));
+	}
+
+	@Test
+	public void testMarshalRejectsMapKeysWhichAreNotXmlNames() {
+		Map<String, Object> map = Maps.newHashMap();
+		map.put("a><evil/", "value");
+
+		thrown.expect(RestException.class);
+		serializer.marshal(map, Collections.singletonMap("rootElementName", "root"));
+	}
+
+	@Test
+	public void testMarshalRejectsAttributeKeysWhichAreNotXmlNames() {
+		Map<String, Object> map = Maps.newHashMap();
+		map.put("@a=\"1\"><evil", "value");
+
+		thrown.expect(RestException.class);
+		serializer.marshal(map, Collections.singletonMap("rootElementName", "root"));
+	}
+
+	@Test
+	public void testMarshalAcceptsNonAsciiXmlNames() {
+		Map<String, Object> map = Maps.newHashMap();
+		map.put("caf\u00e9-1.x", "value");
+
+		String result = serializer.marshal(map, Collections.singletonMap("rootElementName", "root"));
+		assertThat(result.endsWith("<root><caf\u00e9-1.x>value</caf\u00e9-1.x></root>"), is(true));
+	}
+
 	@Test
 	public void testUnmarshal() {
 		MessageDto dto = serializer.unmarshal(MessageDto.class, xml);
 		assertEquals("hello", dto.message);
 	}
+
+	@Test
+	public void testUnmarshalNestedBeansAndCollections() {
+		String xml = "<root><unknown><name>x</name></unknown><children><element><name>child</name><secret>s</secret></element>"
+				+ "<element json_null=\"true\"/></children><name>name</name></root>";
+
+		ClassWithIgnoredGetter object = serializer.unmarshal(ClassWithIgnoredGetter.class, xml);
+		assertThat(object.getName(), is("name"));
+		assertThat(object.getChildren().size(), is(2));
+		assertThat(object.getChildren().get(0).getName(), is("child"));
+		assertThat(object.getChildren().get(0).getSecret(), is(nullValue()));
+		assertThat(object.getChildren().get(1), is(nullValue()));
+	}
+
+	@Test
+	public void testUnmarshalFromStream() {
+		byte[] bytes = xml.replace("UTF-8", "ISO-8859-1").replace("hello", "caf\u00e9 &amp; <![CDATA[<b>]]>").getBytes(Charsets.ISO_8859_1);
+		MessageDto dto = serializer.unmarshal(MessageDto.class, new ByteArrayInputStream(bytes));
+		assertEquals("caf\u00e9 & <b>", dto.message);
+	}
+
+	@Test
+	public void testUnmarshalInvalidXml() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto.class, "<messages><message>hello</messages>");
+	}
+
+	@Test
+	public void testUnmarshalRejectsExternalEntities() {
+		thrown.expect(BadRequestException.class);
+		serializer.unmarshal(MessageDto.class, "<!DOCTYPE messages [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><messages><message>&e;</message></messages>");
+	}
 }